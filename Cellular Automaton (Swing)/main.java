@@ -1,137 +1,2185 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Phaser;
+import java.util.function.BiFunction;
 
 public class CellularAutomaton extends JPanel implements ActionListener {
     private static final int CELL_SIZE = 10; // Size of each cell in pixels
+    private static final int MAX_CELL_SIZE = 32;
+    private static final int MAX_CELLS_PER_PIXEL = 4096;
     private static final int DEFAULT_ROWS = 60;
     private static final int DEFAULT_COLS = 80;
     private static final int TIMER_DELAY = 100; // milliseconds between generations
+    private static final String[] ENGINE_NAMES = {"Classic", "Bit-packed", "Hashlife", "Chunked", "Rule table"};
+    private static final String DEFAULT_RULE = "B3/S23";
 
     private int rows;
     private int cols;
-    private boolean[][] cells;
-    private boolean[][] nextGen;
+    private LifeEngine engine;
+    private Rule rule; // used by the rule table engine; the others are fixed to B3/S23
+    private long generation;
+    private JLabel statusLabel = new JLabel();
     private Timer timer;
+    private volatile boolean batchRunning; // a batch owns the engine until it finishes
+    private String batchReport = "";
+    private int cellSize = CELL_SIZE; // pixels per cell when zoomed in
+    private int cellsPerPixel = 1; // cells per pixel edge when zoomed out; one of these two is 1
+    private final BoardRenderer renderer = new BoardRenderer();
 
-    public CellularAutomaton(int rows, int cols) {
+    public CellularAutomaton(int rows, int cols, LifeEngine engine) {
         this.rows = rows;
         this.cols = cols;
-        this.cells = new boolean[rows][cols];
-        this.nextGen = new boolean[rows][cols];
+        this.engine = engine;
+        this.rule = engine instanceof RuleTableEngine ? ((RuleTableEngine) engine).rule : Rule.parse(DEFAULT_RULE);
 
-        setPreferredSize(new Dimension(cols * CELL_SIZE, rows * CELL_SIZE));
+        if ((long) rows * cols > 1_000_000) {
+            cellSize = 1;
+        }
+        updateViewSize();
         setBackground(Color.WHITE);
 
-        // Random initial state
-        randomizeCells();
+        // Random initial state
+        randomizeCells();
+
+        // Timer for simulation steps
+        timer = new Timer(TIMER_DELAY, this);
+
+        // Mouse listener to toggle cell state on click; zoomed out, a pixel is too coarse to edit
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                int col = e.getX() / cellSize;
+                int row = e.getY() / cellSize;
+                LifeEngine current = CellularAutomaton.this.engine;
+                if (!batchRunning && cellsPerPixel == 1 && row >= 0 && row < rows && col >= 0 && col < cols) {
+                    current.setAlive(row, col, !current.isAlive(row, col));
+                    repaint();
+                }
+            }
+        });
+
+        // Ctrl+wheel zooms around the pointer, except while a batch owns the engine; a plain wheel still scrolls
+        addMouseWheelListener(e -> {
+            if (e.isControlDown()) {
+                if (!batchRunning) {
+                    zoom(e.getWheelRotation() < 0, e.getPoint());
+                }
+            } else {
+                Container scrollPane = SwingUtilities.getAncestorOfClass(JScrollPane.class, this);
+                if (scrollPane != null) {
+                    scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(this, e, scrollPane));
+                }
+            }
+        });
+    }
+
+    private void updateViewSize() {
+        int blocksWide = (cols + cellsPerPixel - 1) / cellsPerPixel;
+        int blocksHigh = (rows + cellsPerPixel - 1) / cellsPerPixel;
+        setPreferredSize(new Dimension(blocksWide * cellSize, blocksHigh * cellSize));
+    }
+
+    // Zooms by one level, keeping the cell under `anchor` (panel coordinates) where it is on screen
+    private void zoom(boolean in, Point anchor) {
+        double cellX = (double) anchor.x / cellSize * cellsPerPixel;
+        double cellY = (double) anchor.y / cellSize * cellsPerPixel;
+        if (in) {
+            if (cellsPerPixel > 1) {
+                cellsPerPixel /= 2;
+            } else {
+                cellSize = Math.min(MAX_CELL_SIZE, cellSize * 2);
+            }
+        } else {
+            if (cellSize > 1) {
+                cellSize /= 2;
+            } else {
+                cellsPerPixel = Math.min(MAX_CELLS_PER_PIXEL, cellsPerPixel * 2);
+            }
+        }
+        updateViewSize();
+        setSize(getPreferredSize());
+        revalidate();
+
+        if (getParent() instanceof JViewport) {
+            JViewport viewport = (JViewport) getParent();
+            Point view = viewport.getViewPosition();
+            int newX = (int) (cellX / cellsPerPixel * cellSize);
+            int newY = (int) (cellY / cellsPerPixel * cellSize);
+            Dimension extent = viewport.getExtentSize();
+            int x = Math.max(0, Math.min(getWidth() - extent.width, newX - (anchor.x - view.x)));
+            int y = Math.max(0, Math.min(getHeight() - extent.height, newY - (anchor.y - view.y)));
+            viewport.setViewPosition(new Point(x, y));
+        }
+        updateStatus();
+        repaint();
+    }
+
+    private void zoomAtCenter(boolean in) {
+        Rectangle visible = getVisibleRect();
+        zoom(in, new Point(visible.x + visible.width / 2, visible.y + visible.height / 2));
+    }
+
+    // Set random initial configuration
+    private void randomizeCells() {
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                engine.setAlive(r, c, Math.random() < 0.2);
+            }
+        }
+        generation = 0;
+        updateStatus();
+        repaint();
+    }
+
+    // Compute next generation
+    private void nextGeneration() {
+        engine.step();
+        generation += engine.stepSize();
+        updateStatus();
+        repaint();
+    }
+
+    private void updateStatus() {
+        String text = String.format("Generation: %,d  Population: %,d", generation, engine.population());
+        if (engine instanceof BitPackedEngine && ((BitPackedEngine) engine).threads() > 1) {
+            text += String.format("  Threads: %d", ((BitPackedEngine) engine).threads());
+        }
+        if (engine instanceof HashLifeEngine) {
+            text += String.format("  Nodes: %,d", ((HashLifeEngine) engine).nodeCount());
+        } else if (engine instanceof RuleTableEngine) {
+            text += "  Rule: " + ((RuleTableEngine) engine).rule.text;
+        } else if (engine instanceof ChunkedEngine) {
+            ChunkedEngine chunked = (ChunkedEngine) engine;
+            text += String.format("  Chunks: %,d (%,d awake)", chunked.chunkCount(), chunked.awakeCount());
+        }
+        text += cellsPerPixel > 1 ? String.format("  Zoom: 1:%d", cellsPerPixel)
+                : String.format("  Zoom: %dpx", cellSize);
+        statusLabel.setText(text + batchReport);
+    }
+
+    /*
+     * Runs `steps` steps back-to-back on a background thread with no repainting in
+     * between, then reports the throughput. The controls passed in are disabled while
+     * the batch owns the engine.
+     */
+    private void runBatch(long steps, JComponent... controls) {
+        timer.stop();
+        batchRunning = true;
+        for (JComponent control : controls) {
+            control.setEnabled(false);
+        }
+        statusLabel.setText(String.format("Running %,d steps...", steps));
+        LifeEngine batchEngine = engine;
+        new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() {
+                long start = System.nanoTime();
+                for (long i = 0; i < steps; i++) {
+                    batchEngine.step();
+                }
+                return System.nanoTime() - start;
+            }
+
+            @Override
+            protected void done() {
+                long nanos;
+                try {
+                    nanos = Math.max(1, get());
+                } catch (Exception ex) {
+                    throw new IllegalStateException("Batch run failed", ex);
+                } finally {
+                    batchRunning = false;
+                    for (JComponent control : controls) {
+                        control.setEnabled(true);
+                    }
+                }
+                long gens = steps * batchEngine.stepSize();
+                generation += gens;
+                batchReport = String.format("  Batch: %,d gens in %,d ms (%,.0f gens/s)",
+                        gens, nanos / 1_000_000, gens * 1e9 / nanos);
+                updateStatus();
+                repaint();
+            }
+        }.execute();
+    }
+
+    // Moves the current board into a different engine of the same size
+    private void switchEngine(LifeEngine next) {
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                next.setAlive(r, c, engine.isAlive(r, c));
+            }
+        }
+        engine.close();
+        engine = next;
+        updateStatus();
+        repaint();
+    }
+
+    // Replaces the board with a freshly loaded engine, resizing the view if the board size changed
+    private void replaceEngine(LifeEngine next, int rows, int cols, long generation) {
+        engine.close();
+        engine = next;
+        this.rows = rows;
+        this.cols = cols;
+        this.generation = generation;
+        updateViewSize();
+        revalidate();
+        updateStatus();
+        repaint();
+    }
+
+    private static String engineName(LifeEngine engine) {
+        if (engine instanceof HashLifeEngine) return "Hashlife";
+        if (engine instanceof ChunkedEngine) return "Chunked";
+        if (engine instanceof RuleTableEngine) return "Rule table";
+        if (engine instanceof BitPackedEngine) return "Bit-packed";
+        return "Classic";
+    }
+
+    // Engines without a fixed board keep cells that fall outside rows x cols
+    private static boolean isUnbounded(LifeEngine engine) {
+        return engine instanceof HashLifeEngine || engine instanceof ChunkedEngine;
+    }
+
+    private static LifeEngine createEngine(String name, int rows, int cols, int threads, Rule rule) {
+        switch (name) {
+            case "Classic":
+                return new ArrayEngine(rows, cols);
+            case "Bit-packed":
+                return new BitPackedEngine(rows, cols, threads);
+            case "Hashlife":
+                return new HashLifeEngine();
+            case "Chunked":
+                return new ChunkedEngine();
+            case "Rule table":
+                return new RuleTableEngine(rows, cols, rule);
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + name);
+        }
+    }
+
+    // Simulation backend; bounded engines keep everything outside the rows x cols board dead
+    private interface LifeEngine {
+        boolean isAlive(int r, int c);
+
+        void setAlive(int r, int c, boolean alive);
+
+        // Advance the whole board by stepSize() generations (B3/S23)
+        void step();
+
+        long population();
+
+        // Generations covered by one step(); only Hashlife jumps more than one
+        default long stepSize() {
+            return 1;
+        }
+
+        // Columns 64w..64w+63 of row r as bits 0..63; columns at or past `cols` read as dead
+        default long rowWord(int r, int w, int cols) {
+            long word = 0;
+            int end = Math.min(64, cols - (w << 6));
+            for (int i = 0; i < end; i++) {
+                if (isAlive(r, (w << 6) + i)) word |= 1L << i;
+            }
+            return word;
+        }
+
+        // Inverse of rowWord; bits at or past `cols` are ignored
+        default void setRowWord(int r, int w, long word, int cols) {
+            int end = Math.min(64, cols - (w << 6));
+            for (int i = 0; i < end; i++) {
+                setAlive(r, (w << 6) + i, (word >>> i & 1L) != 0);
+            }
+        }
+
+        // Releases worker threads, if the engine has any
+        default void close() {
+        }
+
+        // 0 is dead and 1 alive; multi-state rules use 2 and up for dying cells
+        default int stateOf(int r, int c) {
+            return isAlive(r, c) ? 1 : 0;
+        }
+
+        default int stateCount() {
+            return 2;
+        }
+    }
+
+    // Original engine: one boolean per cell, neighbors counted with bounds-checked lookups
+    private static class ArrayEngine implements LifeEngine {
+        private final int rows;
+        private final int cols;
+        private boolean[][] cells;
+        private boolean[][] nextGen;
+
+        ArrayEngine(int rows, int cols) {
+            this.rows = rows;
+            this.cols = cols;
+            this.cells = new boolean[rows][cols];
+            this.nextGen = new boolean[rows][cols];
+        }
+
+        @Override
+        public boolean isAlive(int r, int c) {
+            return cells[r][c];
+        }
+
+        @Override
+        public void setAlive(int r, int c, boolean alive) {
+            cells[r][c] = alive;
+        }
+
+        @Override
+        public void step() {
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    int neighbors = countNeighbors(r, c);
+                    if (cells[r][c]) {
+                        // Any live cell with two or three live neighbors survives.
+                        nextGen[r][c] = (neighbors == 2 || neighbors == 3);
+                    } else {
+                        // Any dead cell with three live neighbors becomes a live cell.
+                        nextGen[r][c] = (neighbors == 3);
+                    }
+                }
+            }
+
+            // Swap buffers
+            boolean[][] temp = cells;
+            cells = nextGen;
+            nextGen = temp;
+        }
+
+        // Count live neighbors of cell at (r, c)
+        private int countNeighbors(int r, int c) {
+            int count = 0;
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    if (dr == 0 && dc == 0) continue;
+                    int rr = r + dr;
+                    int cc = c + dc;
+                    if (rr >= 0 && rr < rows && cc >= 0 && cc < cols && cells[rr][cc]) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public long population() {
+            long count = 0;
+            for (boolean[] row : cells) {
+                for (boolean alive : row) {
+                    if (alive) count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /*
+     * SWAR engine: each row is packed into longs, bit (c & 63) of word (c >> 6), and a
+     * whole word of 64 cells is stepped at once. The eight neighbor words (the row
+     * above, the row itself and the row below, each shifted one column either way) are
+     * summed into bit-planes with full adders, so counts never leave the registers.
+     *
+     * With more than one thread the rows are cut into stripes. The calling thread steps
+     * stripe 0 and a fixed pool of workers steps the rest; everyone meets at a Phaser
+     * once to start and once to finish, and only then are the buffers swapped. During a
+     * step `cells` is only read, so the halo rows a stripe borrows from its neighbors
+     * need no locking, and each stripe writes a disjoint range of `nextGen`.
+     */
+    private static class BitPackedEngine implements LifeEngine {
+        private final int rows;
+        private final int cols;
+        private final int words; // longs per row
+        private final long lastMask; // valid bits of the last word in a row
+        private final int[] stripeStart; // stripe i covers rows [stripeStart[i], stripeStart[i + 1])
+        private final Phaser phaser;
+        private long[] cells;
+        private long[] nextGen;
+
+        BitPackedEngine(int rows, int cols) {
+            this(rows, cols, 1);
+        }
+
+        BitPackedEngine(int rows, int cols, int threads) {
+            this.rows = rows;
+            this.cols = cols;
+            this.words = (cols + 63) >>> 6;
+            this.lastMask = (cols & 63) == 0 ? -1L : (1L << (cols & 63)) - 1;
+            this.cells = new long[rows * words];
+            this.nextGen = new long[rows * words];
+
+            int stripes = Math.max(1, Math.min(threads, rows));
+            stripeStart = new int[stripes + 1];
+            for (int i = 0; i <= stripes; i++) {
+                stripeStart[i] = (int) ((long) rows * i / stripes);
+            }
+            if (stripes == 1) {
+                phaser = null;
+                return;
+            }
+            phaser = new Phaser(stripes);
+            for (int i = 1; i < stripes; i++) {
+                int stripe = i;
+                Thread worker = new Thread(() -> runWorker(stripe), "life-stripe-" + i);
+                worker.setDaemon(true);
+                worker.start();
+            }
+        }
+
+        int threads() {
+            return stripeStart.length - 1;
+        }
+
+        // Workers wait for the start phase, step their stripe, then arrive at the finish phase
+        private void runWorker(int stripe) {
+            while (phaser.arriveAndAwaitAdvance() >= 0) {
+                stepRows(stripeStart[stripe], stripeStart[stripe + 1]);
+                if (phaser.arriveAndAwaitAdvance() < 0) return;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (phaser != null) {
+                phaser.forceTermination();
+            }
+        }
+
+        @Override
+        public boolean isAlive(int r, int c) {
+            return (cells[r * words + (c >>> 6)] >>> (c & 63) & 1L) != 0;
+        }
+
+        @Override
+        public void setAlive(int r, int c, boolean alive) {
+            int i = r * words + (c >>> 6);
+            long bit = 1L << (c & 63);
+            cells[i] = alive ? cells[i] | bit : cells[i] & ~bit;
+        }
+
+        @Override
+        public long rowWord(int r, int w, int cols) {
+            return cells[r * words + w];
+        }
+
+        @Override
+        public void setRowWord(int r, int w, long word, int cols) {
+            cells[r * words + w] = w == words - 1 ? word & lastMask : word;
+        }
+
+        @Override
+        public void step() {
+            if (phaser == null) {
+                stepRows(0, rows);
+            } else {
+                phaser.arriveAndAwaitAdvance();
+                stepRows(stripeStart[0], stripeStart[1]);
+                phaser.arriveAndAwaitAdvance();
+            }
+
+            // Swap buffers
+            long[] temp = cells;
+            cells = nextGen;
+            nextGen = temp;
+        }
+
+        // Writes rows [from, to) of nextGen from cells
+        private void stepRows(int from, int to) {
+            for (int r = from; r < to; r++) {
+                int up = (r - 1) * words;
+                int mid = r * words;
+                int down = (r + 1) * words;
+                for (int w = 0; w < words; w++) {
+                    long next = nextWord(
+                            r > 0 ? row(up, w) : 0, r > 0 ? row(up, w - 1) : 0, r > 0 ? row(up, w + 1) : 0,
+                            row(mid, w), row(mid, w - 1), row(mid, w + 1),
+                            r < rows - 1 ? row(down, w) : 0, r < rows - 1 ? row(down, w - 1) : 0,
+                            r < rows - 1 ? row(down, w + 1) : 0);
+                    nextGen[mid + w] = w == words - 1 ? next & lastMask : next;
+                }
+            }
+        }
+
+        @Override
+        public long population() {
+            long count = 0;
+            for (long word : cells) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+
+        // Word w of the row starting at `base`, or 0 past either edge
+        private long row(int base, int w) {
+            return w < 0 || w >= words ? 0 : cells[base + w];
+        }
+
+        /*
+         * B3/S23 for 64 cells, shared with ChunkedEngine. a, m and d are the words above,
+         * at and below the row being stepped; the Left/Right words supply the edge bits
+         * that shift in from next door.
+         */
+        private static long nextWord(long a, long aLeft, long aRight, long m, long mLeft, long mRight,
+                                     long d, long dLeft, long dRight) {
+            // West neighbor of bit i is bit i-1, east neighbor is bit i+1
+            long n0 = (a << 1) | (aLeft >>> 63);
+            long n1 = a;
+            long n2 = (a >>> 1) | (aRight << 63);
+            long n3 = (m << 1) | (mLeft >>> 63);
+            long n4 = (m >>> 1) | (mRight << 63);
+            long n5 = (d << 1) | (dLeft >>> 63);
+            long n6 = d;
+            long n7 = (d >>> 1) | (dRight << 63);
+
+            // Full adders: three ones-bits in, a ones-bit and a twos-bit out
+            long s01 = n0 ^ n1 ^ n2;
+            long c01 = (n0 & n1) | (n2 & (n0 ^ n1));
+            long s34 = n3 ^ n4 ^ n5;
+            long c34 = (n3 & n4) | (n5 & (n3 ^ n4));
+            long s67 = n6 ^ n7;
+            long c67 = n6 & n7;
+
+            long ones = s01 ^ s34 ^ s67;
+            long carry = (s01 & s34) | (s67 & (s01 ^ s34));
+
+            // Four twos-bits (c01, c34, c67, carry) reduce to the twos and fours planes
+            long t = c01 ^ c34 ^ c67;
+            long u = (c01 & c34) | (c67 & (c01 ^ c34));
+            long twos = t ^ carry;
+            long v = t & carry;
+            long fours = u ^ v;
+            long eights = u & v;
+
+            // Count 3 is born or survives, count 2 only survives
+            return ~eights & ~fours & twos & (ones | m);
+        }
+    }
+
+    /*
+     * Sparse unbounded engine: the universe is a set of 64x64 chunks, one long per chunk
+     * row, held in a map keyed by packed chunk coordinates. A chunk that has not changed
+     * for two generations goes to sleep, and a step only computes chunks that are awake
+     * or border an awake chunk. Chunks are created when live cells reach an edge and
+     * dropped once they are empty and asleep, so the world follows the pattern.
+     */
+    private static class ChunkedEngine implements LifeEngine {
+        private static final int SIZE = 64;
+        private static final int SLEEP_AFTER = 2; // generations without change
+
+        private static final class Chunk {
+            final int cx, cy;
+            long[] cells = new long[SIZE];
+            long[] next = new long[SIZE];
+            int quiet; // generations since the last change
+            int stepMark; // last step that scheduled this chunk
+
+            Chunk(int cx, int cy) {
+                this.cx = cx;
+                this.cy = cy;
+            }
+
+            boolean isAwake() {
+                return quiet < SLEEP_AFTER;
+            }
+
+            boolean isEmpty() {
+                for (long row : cells) {
+                    if (row != 0) return false;
+                }
+                return true;
+            }
+        }
+
+        private final ChunkMap chunks = new ChunkMap();
+        private final List<Chunk> scheduled = new ArrayList<>();
+        private int stepId;
+
+        int chunkCount() {
+            return chunks.size();
+        }
+
+        int awakeCount() {
+            int awake = 0;
+            for (Chunk chunk : chunks.values()) {
+                if (chunk.isAwake()) awake++;
+            }
+            return awake;
+        }
+
+        @Override
+        public boolean isAlive(int r, int c) {
+            Chunk chunk = chunks.get(Math.floorDiv(c, SIZE), Math.floorDiv(r, SIZE));
+            return chunk != null && (chunk.cells[r & (SIZE - 1)] >>> (c & (SIZE - 1)) & 1L) != 0;
+        }
+
+        @Override
+        public void setAlive(int r, int c, boolean alive) {
+            int cx = Math.floorDiv(c, SIZE);
+            int cy = Math.floorDiv(r, SIZE);
+            Chunk chunk = chunks.get(cx, cy);
+            if (chunk == null) {
+                if (!alive) return;
+                chunk = chunks.put(new Chunk(cx, cy));
+            }
+            long bit = 1L << (c & (SIZE - 1));
+            int row = r & (SIZE - 1);
+            chunk.cells[row] = alive ? chunk.cells[row] | bit : chunk.cells[row] & ~bit;
+            chunk.quiet = 0;
+        }
+
+        // Chunk columns line up with words, so this is one chunk row
+        @Override
+        public long rowWord(int r, int w, int cols) {
+            Chunk chunk = chunks.get(w, Math.floorDiv(r, SIZE));
+            long word = chunk == null ? 0 : chunk.cells[r & (SIZE - 1)];
+            int end = cols - (w << 6);
+            return end >= 64 ? word : word & ((1L << end) - 1);
+        }
+
+        @Override
+        public long population() {
+            long count = 0;
+            for (Chunk chunk : chunks.values()) {
+                for (long row : chunk.cells) {
+                    count += Long.bitCount(row);
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public void step() {
+            stepId++;
+            scheduled.clear();
+
+            // Awake chunks with live cells on an edge may give birth next door, so make sure that chunk exists
+            List<Chunk> awake = new ArrayList<>();
+            for (Chunk chunk : chunks.values()) {
+                if (chunk.isAwake()) awake.add(chunk);
+            }
+            for (Chunk chunk : awake) {
+                growAround(chunk);
+            }
+            for (Chunk chunk : chunks.values()) {
+                if (!chunk.isAwake()) continue;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        Chunk n = dx == 0 && dy == 0 ? chunk : chunks.get(chunk.cx + dx, chunk.cy + dy);
+                        if (n != null && n.stepMark != stepId) {
+                            n.stepMark = stepId;
+                            scheduled.add(n);
+                        }
+                    }
+                }
+            }
+
+            // Every scheduled chunk reads its neighbors' current cells before any of them is swapped
+            for (Chunk chunk : scheduled) {
+                computeNext(chunk);
+            }
+            List<Chunk> dead = new ArrayList<>();
+            for (Chunk chunk : scheduled) {
+                boolean changed = !Arrays.equals(chunk.cells, chunk.next);
+                long[] temp = chunk.cells;
+                chunk.cells = chunk.next;
+                chunk.next = temp;
+                chunk.quiet = changed ? 0 : chunk.quiet + 1;
+                if (!chunk.isAwake() && chunk.isEmpty()) dead.add(chunk);
+            }
+            for (Chunk chunk : dead) {
+                chunks.remove(chunk.cx, chunk.cy);
+            }
+        }
+
+        private void growAround(Chunk chunk) {
+            long[] cells = chunk.cells;
+            long top = cells[0];
+            long bottom = cells[SIZE - 1];
+            long left = 0;
+            long right = 0;
+            for (long row : cells) {
+                left |= row & 1L;
+                right |= row >>> (SIZE - 1);
+            }
+            if (top != 0) ensure(chunk.cx, chunk.cy - 1);
+            if (bottom != 0) ensure(chunk.cx, chunk.cy + 1);
+            if (left != 0) ensure(chunk.cx - 1, chunk.cy);
+            if (right != 0) ensure(chunk.cx + 1, chunk.cy);
+            if ((top & 1L) != 0) ensure(chunk.cx - 1, chunk.cy - 1);
+            if ((top >>> (SIZE - 1)) != 0) ensure(chunk.cx + 1, chunk.cy - 1);
+            if ((bottom & 1L) != 0) ensure(chunk.cx - 1, chunk.cy + 1);
+            if ((bottom >>> (SIZE - 1)) != 0) ensure(chunk.cx + 1, chunk.cy + 1);
+        }
+
+        private void ensure(int cx, int cy) {
+            if (chunks.get(cx, cy) == null) {
+                chunks.put(new Chunk(cx, cy));
+            }
+        }
+
+        private void computeNext(Chunk chunk) {
+            long[] west = cellsOf(chunk.cx - 1, chunk.cy);
+            long[] east = cellsOf(chunk.cx + 1, chunk.cy);
+            long[] north = cellsOf(chunk.cx, chunk.cy - 1);
+            long[] south = cellsOf(chunk.cx, chunk.cy + 1);
+            long nwCorner = cornerRow(chunk.cx - 1, chunk.cy - 1, SIZE - 1);
+            long neCorner = cornerRow(chunk.cx + 1, chunk.cy - 1, SIZE - 1);
+            long swCorner = cornerRow(chunk.cx - 1, chunk.cy + 1, 0);
+            long seCorner = cornerRow(chunk.cx + 1, chunk.cy + 1, 0);
+
+            long[] cells = chunk.cells;
+            for (int r = 0; r < SIZE; r++) {
+                long up, upLeft, upRight, down, downLeft, downRight;
+                if (r > 0) {
+                    up = cells[r - 1];
+                    upLeft = west == null ? 0 : west[r - 1];
+                    upRight = east == null ? 0 : east[r - 1];
+                } else {
+                    up = north == null ? 0 : north[SIZE - 1];
+                    upLeft = nwCorner;
+                    upRight = neCorner;
+                }
+                if (r < SIZE - 1) {
+                    down = cells[r + 1];
+                    downLeft = west == null ? 0 : west[r + 1];
+                    downRight = east == null ? 0 : east[r + 1];
+                } else {
+                    down = south == null ? 0 : south[0];
+                    downLeft = swCorner;
+                    downRight = seCorner;
+                }
+                chunk.next[r] = BitPackedEngine.nextWord(
+                        up, upLeft, upRight,
+                        cells[r], west == null ? 0 : west[r], east == null ? 0 : east[r],
+                        down, downLeft, downRight);
+            }
+        }
+
+        private long[] cellsOf(int cx, int cy) {
+            Chunk chunk = chunks.get(cx, cy);
+            return chunk == null ? null : chunk.cells;
+        }
+
+        private long cornerRow(int cx, int cy, int row) {
+            Chunk chunk = chunks.get(cx, cy);
+            return chunk == null ? 0 : chunk.cells[row];
+        }
+    }
+
+    // Open-addressing map from packed (cx, cy) chunk coordinates to chunks, with no boxing
+    private static class ChunkMap {
+        private long[] keys = new long[64];
+        private ChunkedEngine.Chunk[] values = new ChunkedEngine.Chunk[64];
+        private int size;
+
+        private static long key(int cx, int cy) {
+            return ((long) cx << 32) | (cy & 0xffffffffL);
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9e3779b97f4a7c15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        int size() {
+            return size;
+        }
+
+        ChunkedEngine.Chunk get(int cx, int cy) {
+            long key = key(cx, cy);
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            return null;
+        }
+
+        ChunkedEngine.Chunk put(ChunkedEngine.Chunk chunk) {
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            long key = key(chunk.cx, chunk.cy);
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) size++;
+            keys[i] = key;
+            values[i] = chunk;
+            return chunk;
+        }
+
+        // Backward-shift deletion keeps every probe chain unbroken without tombstones
+        void remove(int cx, int cy) {
+            long key = key(cx, cy);
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) return;
+            size--;
+            int hole = i;
+            for (int j = (hole + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = slot(keys[j], mask);
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            values[hole] = null;
+        }
+
+        // Snapshot of the current chunks, safe to hold while the map changes
+        List<ChunkedEngine.Chunk> values() {
+            List<ChunkedEngine.Chunk> list = new ArrayList<>(size);
+            for (ChunkedEngine.Chunk chunk : values) {
+                if (chunk != null) list.add(chunk);
+            }
+            return list;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            ChunkedEngine.Chunk[] oldValues = values;
+            keys = new long[capacity];
+            values = new ChunkedEngine.Chunk[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) put(oldValues[i]);
+            }
+        }
+    }
+
+    /*
+     * Hashlife on an unbounded universe. The board is a quadtree of canonical nodes:
+     * every distinct 2^k x 2^k block exists once, looked up by the identity of its four
+     * children, so repeated structure in space and time is shared. Each node of level
+     * k >= 2 memoizes its RESULT, the centered 2^(k-1) block advanced by
+     * 2^min(k-2, stepExponent) generations, and one step() advances the whole universe
+     * by 2^stepExponent generations.
+     *
+     * The node table is a cache: when it outgrows its budget, a mark-and-sweep pass
+     * keeps the tree reachable from the root together with its memoized results, and
+     * if that is still too large it also drops the results, oldest work first.
+     */
+    private static class HashLifeEngine implements LifeEngine {
+        private static final int MAX_LEVEL = 62; // coordinates stay inside a long
+
+        private static final class Node {
+            final Node nw, ne, sw, se; // null for single cells
+            final int level;
+            final long population;
+            final int hash;
+            Node result; // memoized RESULT for the current step exponent
+            Node next; // hash-chain link in the node table
+            boolean marked;
+
+            Node(Node nw, Node ne, Node sw, Node se, int level, long population, int hash) {
+                this.nw = nw;
+                this.ne = ne;
+                this.sw = sw;
+                this.se = se;
+                this.level = level;
+                this.population = population;
+                this.hash = hash;
+            }
+        }
+
+        private static final Node DEAD = new Node(null, null, null, null, 0, 0, 0x9e3779b9);
+        private static final Node ALIVE = new Node(null, null, null, null, 0, 1, 0x7f4a7c15);
+
+        private final long maxNodes = Math.max(1 << 16, Runtime.getRuntime().maxMemory() / 400);
+        private final Node[] emptyNodes = new Node[MAX_LEVEL + 1];
+        private Node[] table = new Node[1 << 16];
+        private int nodeCount;
+        private int stepExponent;
+        private Node root;
+        private long originRow; // board position of the center of root
+        private long originCol;
+
+        HashLifeEngine() {
+            emptyNodes[0] = DEAD;
+            root = empty(3);
+        }
+
+        int nodeCount() {
+            return nodeCount;
+        }
+
+        // Results are only valid for the exponent they were computed with
+        void setStepExponent(int exponent) {
+            if (exponent < 0 || exponent > MAX_LEVEL - 3) {
+                throw new IllegalArgumentException("Step exponent out of range: " + exponent);
+            }
+            if (exponent == stepExponent) return;
+            stepExponent = exponent;
+            for (Node bucket : table) {
+                for (Node n = bucket; n != null; n = n.next) {
+                    n.result = null;
+                }
+            }
+        }
+
+        @Override
+        public long stepSize() {
+            return 1L << stepExponent;
+        }
+
+        @Override
+        public long population() {
+            return root.population;
+        }
+
+        @Override
+        public boolean isAlive(int r, int c) {
+            long x = c - originCol;
+            long y = r - originRow;
+            long half = 1L << (root.level - 1);
+            if (x < -half || x >= half || y < -half || y >= half) return false;
+            return get(root, x, y);
+        }
+
+        @Override
+        public void setAlive(int r, int c, boolean alive) {
+            long x = c - originCol;
+            long y = r - originRow;
+            while (true) {
+                long half = 1L << (root.level - 1);
+                if (x >= -half && x < half && y >= -half && y < half) break;
+                root = expand(root);
+            }
+            if (get(root, x, y) != alive) {
+                root = set(root, x, y, alive);
+            }
+        }
+
+        // Replaces the universe with `node` (built by this engine), centered on the given board cell
+        void adopt(Node node, long centerRow, long centerCol) {
+            while (node.level < 3) {
+                node = expand(node);
+            }
+            root = node;
+            originRow = centerRow;
+            originCol = centerCol;
+        }
+
+        // Node for a 2^level square whose cells come from alive(row, col), rows top to bottom
+        Node build(int level, boolean[][] alive, int row, int col) {
+            if (level == 0) return alive[row][col] ? ALIVE : DEAD;
+            int half = 1 << (level - 1);
+            return join(build(level - 1, alive, row, col), build(level - 1, alive, row, col + half),
+                        build(level - 1, alive, row + half, col), build(level - 1, alive, row + half, col + half));
+        }
+
+        @Override
+        public void step() {
+            // The pattern must sit in the central quarter, with room to grow for 2^stepExponent generations
+            while (root.level < stepExponent + 3 || !isCentered(root)) {
+                root = expand(root);
+            }
+            root = result(root);
+            if (nodeCount > maxNodes) {
+                collectGarbage();
+            }
+        }
+
+        // Coordinates are relative to the center of n, which covers [-2^(level-1), 2^(level-1))
+        private boolean get(Node n, long x, long y) {
+            if (n.population == 0) return false;
+            if (n.level == 0) return n == ALIVE;
+            if (n.level == 1) {
+                return (y < 0 ? (x < 0 ? n.nw : n.ne) : (x < 0 ? n.sw : n.se)) == ALIVE;
+            }
+            long q = 1L << (n.level - 2);
+            if (y < 0) {
+                return x < 0 ? get(n.nw, x + q, y + q) : get(n.ne, x - q, y + q);
+            }
+            return x < 0 ? get(n.sw, x + q, y - q) : get(n.se, x - q, y - q);
+        }
+
+        private Node set(Node n, long x, long y, boolean alive) {
+            if (n.level == 1) {
+                Node cell = alive ? ALIVE : DEAD;
+                if (y < 0) {
+                    return x < 0 ? join(cell, n.ne, n.sw, n.se) : join(n.nw, cell, n.sw, n.se);
+                }
+                return x < 0 ? join(n.nw, n.ne, cell, n.se) : join(n.nw, n.ne, n.sw, cell);
+            }
+            long q = 1L << (n.level - 2);
+            if (y < 0) {
+                return x < 0 ? join(set(n.nw, x + q, y + q, alive), n.ne, n.sw, n.se)
+                             : join(n.nw, set(n.ne, x - q, y + q, alive), n.sw, n.se);
+            }
+            return x < 0 ? join(n.nw, n.ne, set(n.sw, x + q, y - q, alive), n.se)
+                         : join(n.nw, n.ne, n.sw, set(n.se, x - q, y - q, alive));
+        }
+
+        // Canonical node with these children
+        private Node join(Node nw, Node ne, Node sw, Node se) {
+            int hash = ((nw.hash * 31 + ne.hash) * 31 + sw.hash) * 31 + se.hash;
+            hash ^= hash >>> 16;
+            int bucket = hash & (table.length - 1);
+            for (Node n = table[bucket]; n != null; n = n.next) {
+                if (n.nw == nw && n.ne == ne && n.sw == sw && n.se == se) return n;
+            }
+            Node n = new Node(nw, ne, sw, se, nw.level + 1,
+                    nw.population + ne.population + sw.population + se.population, hash);
+            n.next = table[bucket];
+            table[bucket] = n;
+            if (++nodeCount > table.length * 3 / 4) {
+                resize(table.length * 2);
+            }
+            return n;
+        }
+
+        private Node empty(int level) {
+            if (emptyNodes[level] == null) {
+                Node e = empty(level - 1);
+                emptyNodes[level] = join(e, e, e, e);
+            }
+            return emptyNodes[level];
+        }
+
+        // Same content, one level up, with empty space around it
+        private Node expand(Node n) {
+            if (n.level >= MAX_LEVEL) {
+                throw new IllegalStateException("Pattern outgrew the universe");
+            }
+            Node e = empty(n.level - 1);
+            return join(join(e, e, e, n.nw), join(e, e, n.ne, e),
+                        join(e, n.sw, e, e), join(n.se, e, e, e));
+        }
+
+        private boolean isCentered(Node n) {
+            return n.population == n.nw.se.se.population + n.ne.sw.sw.population
+                    + n.sw.ne.ne.population + n.se.nw.nw.population;
+        }
 
-        // Timer for simulation steps
-        timer = new Timer(TIMER_DELAY, this);
+        // Central level-1 block of a level-2 node
+        private Node center(Node n) {
+            return join(n.nw.se, n.ne.sw, n.sw.ne, n.se.nw);
+        }
 
-        // Mouse listener to toggle cell state on click
-        addMouseListener(new MouseAdapter() {
-            @Override
-            public void mousePressed(MouseEvent e) {
-                int col = e.getX() / CELL_SIZE;
-                int row = e.getY() / CELL_SIZE;
-                if (row >= 0 && row < rows && col >= 0 && col < cols) {
-                    cells[row][col] = !cells[row][col];
-                    repaint();
+        private Node result(Node n) {
+            if (n.result != null) return n.result;
+            Node r;
+            if (n.population == 0) {
+                r = n.nw;
+            } else if (n.level == 2) {
+                r = baseResult(n);
+            } else {
+                // Nine overlapping level k-1 blocks, each advanced by half the time
+                Node n00 = result(n.nw);
+                Node n01 = result(join(n.nw.ne, n.ne.nw, n.nw.se, n.ne.sw));
+                Node n02 = result(n.ne);
+                Node n10 = result(join(n.nw.sw, n.nw.se, n.sw.nw, n.sw.ne));
+                Node n11 = result(join(n.nw.se, n.ne.sw, n.sw.ne, n.se.nw));
+                Node n12 = result(join(n.ne.sw, n.ne.se, n.se.nw, n.se.ne));
+                Node n20 = result(n.sw);
+                Node n21 = result(join(n.sw.ne, n.se.nw, n.sw.se, n.se.sw));
+                Node n22 = result(n.se);
+
+                Node a = join(n00, n01, n10, n11);
+                Node b = join(n01, n02, n11, n12);
+                Node c = join(n10, n11, n20, n21);
+                Node d = join(n11, n12, n21, n22);
+                if (n.level - 2 <= stepExponent) {
+                    // Full speed: a second round of RESULTs doubles the time advanced
+                    r = join(result(a), result(b), result(c), result(d));
+                } else {
+                    // Capped: the first round already advanced 2^stepExponent
+                    r = join(center(a), center(b), center(c), center(d));
                 }
             }
-        });
+            n.result = r;
+            return r;
+        }
+
+        // One generation of the central 2x2 cells of a 4x4 block
+        private Node baseResult(Node n) {
+            int bits = 0; // bit (y * 4 + x)
+            for (int y = 0; y < 4; y++) {
+                for (int x = 0; x < 4; x++) {
+                    if (get(n, x - 2, y - 2)) bits |= 1 << (y * 4 + x);
+                }
+            }
+            return join(nextCell(bits, 1, 1), nextCell(bits, 2, 1), nextCell(bits, 1, 2), nextCell(bits, 2, 2));
+        }
+
+        private static Node nextCell(int bits, int x, int y) {
+            int neighbors = 0;
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    if ((dx != 0 || dy != 0) && (bits >>> ((y + dy) * 4 + x + dx) & 1) != 0) neighbors++;
+                }
+            }
+            boolean alive = (bits >>> (y * 4 + x) & 1) != 0;
+            return neighbors == 3 || (alive && neighbors == 2) ? ALIVE : DEAD;
+        }
+
+        private void resize(int capacity) {
+            Node[] old = table;
+            table = new Node[capacity];
+            for (Node bucket : old) {
+                Node n = bucket;
+                while (n != null) {
+                    Node next = n.next;
+                    int i = n.hash & (capacity - 1);
+                    n.next = table[i];
+                    table[i] = n;
+                    n = next;
+                }
+            }
+        }
+
+        private void collectGarbage() {
+            sweep(true);
+            if (nodeCount > maxNodes / 2) {
+                // Memoized results alone keep too much alive: forget them and keep just the pattern
+                for (Node bucket : table) {
+                    for (Node n = bucket; n != null; n = n.next) {
+                        n.result = null;
+                    }
+                }
+                sweep(false);
+            }
+        }
+
+        private void sweep(boolean keepResults) {
+            mark(root, keepResults);
+            for (Node e : emptyNodes) {
+                if (e != null) mark(e, false);
+            }
+            nodeCount = 0;
+            for (int i = 0; i < table.length; i++) {
+                Node kept = null;
+                Node n = table[i];
+                while (n != null) {
+                    Node next = n.next;
+                    if (n.marked) {
+                        n.marked = false;
+                        n.next = kept;
+                        kept = n;
+                        nodeCount++;
+                    } else {
+                        n.result = null;
+                        n.next = null;
+                    }
+                    n = next;
+                }
+                table[i] = kept;
+            }
+        }
+
+        private void mark(Node n, boolean keepResults) {
+            if (n.level == 0 || n.marked) return;
+            n.marked = true;
+            mark(n.nw, keepResults);
+            mark(n.ne, keepResults);
+            mark(n.sw, keepResults);
+            mark(n.se, keepResults);
+            if (keepResults && n.result != null) {
+                mark(n.result, true);
+            } else {
+                n.result = null;
+            }
+        }
     }
 
-    // Set random initial configuration
-    private void randomizeCells() {
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                cells[r][c] = Math.random() < 0.2;
+    /*
+     * A rule compiled once into a next-state table, so stepping a cell is one indexed
+     * read whatever the rule. Understood notations:
+     *
+     *     B3/S23, S23/B3 or 23/3          Life-like, 3x3 neighborhood
+     *     B2/S/C3 or 345/2/4              Generations: C states, 2..C-1 are dying
+     *     R5,C0,M1,S34..58,B34..45,NM     Larger than Life, (2R+1)^2 box
+     *
+     * Only state 1 counts as a live neighbor. 3x3 rules index the table with the nine
+     * neighborhood bits (column triples top to bottom, west to east, so the center is
+     * bit 4); Larger than Life rules index it with the live count of the whole box.
+     */
+    private static final class Rule {
+        final String text;
+        final int radius;
+        final boolean box; // Larger than Life: key is the box count, not the 3x3 bits
+        final int states;
+        final int stride; // table entries per state
+        final byte[] table; // next state at [state * stride + key]
+
+        private Rule(String text, int radius, boolean box, int states, boolean[] birth, boolean[] survive,
+                     boolean countCenter) {
+            this.text = text;
+            this.radius = radius;
+            this.box = box;
+            this.states = states;
+            this.stride = box ? (2 * radius + 1) * (2 * radius + 1) + 1 : 512;
+            this.table = new byte[states * stride];
+            for (int state = 0; state < states; state++) {
+                for (int key = 0; key < stride; key++) {
+                    int count;
+                    if (!box) {
+                        count = Integer.bitCount(key & ~0x10);
+                    } else {
+                        count = state == 1 && !countCenter ? key - 1 : key;
+                    }
+                    // Keys that cannot occur (a live center in a dead cell's box) stay 0
+                    if (count < 0 || count >= birth.length) continue;
+                    table[state * stride + key] = (byte) transition(state, count, birth, survive, states);
+                }
             }
         }
-        repaint();
+
+        private static int transition(int state, int count, boolean[] birth, boolean[] survive, int states) {
+            if (state == 0) return birth[count] ? 1 : 0;
+            if (state == 1) return survive[count] ? 1 : (states > 2 ? 2 : 0);
+            return (state + 1) % states;
+        }
+
+        // True for plain B3/S23, which every engine can run
+        boolean isLife() {
+            return !box && states == 2 && Arrays.equals(table, parse(DEFAULT_RULE).table);
+        }
+
+        static Rule parse(String text) {
+            String t = text.trim().toUpperCase();
+            if (t.startsWith("R") && t.contains(",")) {
+                return parseLargerThanLife(text.trim(), t);
+            }
+            boolean[] birth = new boolean[9];
+            boolean[] survive = new boolean[9];
+            int states = 2;
+            String[] parts = t.split("/", -1);
+            if (parts.length < 2 || parts.length > 3) {
+                throw new IllegalArgumentException("Expected B../S.. or S/B[/C]: " + text);
+            }
+            if (t.chars().anyMatch(Character::isLetter)) {
+                for (String part : parts) {
+                    if (part.isEmpty()) throw new IllegalArgumentException("Empty section in rule: " + text);
+                    String digits = part.substring(1);
+                    switch (part.charAt(0)) {
+                        case 'B': fill(birth, digits, text); break;
+                        case 'S': fill(survive, digits, text); break;
+                        case 'C':
+                        case 'G': states = parseStates(digits, text); break;
+                        default: throw new IllegalArgumentException("Unknown section '" + part + "' in rule: " + text);
+                    }
+                }
+            } else {
+                // Golly's S/B/C order
+                fill(survive, parts[0], text);
+                fill(birth, parts[1], text);
+                if (parts.length == 3) states = parseStates(parts[2], text);
+            }
+            if (birth[0]) {
+                throw new IllegalArgumentException("B0 rules are not supported on a bounded board: " + text);
+            }
+            return new Rule(text.trim(), 1, false, states, birth, survive, false);
+        }
+
+        private static Rule parseLargerThanLife(String text, String t) {
+            int radius = -1;
+            int states = 2;
+            boolean countCenter = true;
+            int[] birthRange = null;
+            int[] surviveRange = null;
+            for (String token : t.split(",")) {
+                if (token.isEmpty()) throw new IllegalArgumentException("Empty section in rule: " + text);
+                String value = token.substring(1);
+                try {
+                    switch (token.charAt(0)) {
+                        case 'R': radius = Integer.parseInt(value); break;
+                        case 'C': states = Math.max(2, Integer.parseInt(value)); break;
+                        case 'M': countCenter = Integer.parseInt(value) != 0; break;
+                        case 'S': surviveRange = parseRange(value, text); break;
+                        case 'B': birthRange = parseRange(value, text); break;
+                        case 'N':
+                            if (!value.equals("M")) {
+                                throw new IllegalArgumentException("Only the Moore (NM) neighborhood is supported: " + text);
+                            }
+                            break;
+                        default: throw new IllegalArgumentException("Unknown section '" + token + "' in rule: " + text);
+                    }
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("Bad number in '" + token + "' of rule: " + text);
+                }
+            }
+            if (radius < 1 || radius > 500 || birthRange == null || surviveRange == null || states > 256) {
+                throw new IllegalArgumentException("Larger than Life needs R1..R500, C<=256, S and B: " + text);
+            }
+            int maxCount = (2 * radius + 1) * (2 * radius + 1);
+            boolean[] birth = new boolean[maxCount + 1];
+            boolean[] survive = new boolean[maxCount + 1];
+            for (int i = birthRange[0]; i <= Math.min(birthRange[1], maxCount); i++) birth[i] = true;
+            for (int i = surviveRange[0]; i <= Math.min(surviveRange[1], maxCount); i++) survive[i] = true;
+            if (birth[0]) {
+                throw new IllegalArgumentException("B0 rules are not supported on a bounded board: " + text);
+            }
+            return new Rule(text, radius, true, states, birth, survive, countCenter);
+        }
+
+        private static void fill(boolean[] counts, String digits, String text) {
+            for (char ch : digits.toCharArray()) {
+                if (ch < '0' || ch > '8') throw new IllegalArgumentException("Bad neighbor count '" + ch + "' in rule: " + text);
+                counts[ch - '0'] = true;
+            }
+        }
+
+        private static int parseStates(String digits, String text) {
+            try {
+                int states = Integer.parseInt(digits);
+                if (states >= 2 && states <= 256) return states;
+            } catch (NumberFormatException ignored) {
+                // fall through to the message below
+            }
+            throw new IllegalArgumentException("State count must be 2..256 in rule: " + text);
+        }
+
+        private static int[] parseRange(String value, String text) {
+            String[] ends = value.split("\\.\\.");
+            int lo = Integer.parseInt(ends[0]);
+            int hi = ends.length > 1 ? Integer.parseInt(ends[1]) : lo;
+            if (lo < 0 || hi < lo) throw new IllegalArgumentException("Bad range '" + value + "' in rule: " + text);
+            return new int[] {lo, hi};
+        }
     }
 
-    // Compute next generation
-    private void nextGeneration() {
-        for (int r = 0; r < rows; r++) {
+    /*
+     * Bounded engine for any compiled Rule, one byte of state per cell. 3x3 rules slide
+     * a 9-bit neighborhood key along each row, shifting in one column triple per cell;
+     * Larger than Life rules keep running column sums over 2R+1 rows and slide a box
+     * sum across them, so the cost per cell does not grow with the radius.
+     */
+    private static class RuleTableEngine implements LifeEngine {
+        private final int rows;
+        private final int cols;
+        private final Rule rule;
+        private byte[] cells;
+        private byte[] nextGen;
+
+        RuleTableEngine(int rows, int cols, Rule rule) {
+            this.rows = rows;
+            this.cols = cols;
+            this.rule = rule;
+            this.cells = new byte[rows * cols];
+            this.nextGen = new byte[rows * cols];
+        }
+
+        @Override
+        public boolean isAlive(int r, int c) {
+            return cells[r * cols + c] == 1;
+        }
+
+        @Override
+        public void setAlive(int r, int c, boolean alive) {
+            cells[r * cols + c] = (byte) (alive ? 1 : 0);
+        }
+
+        @Override
+        public int stateOf(int r, int c) {
+            return cells[r * cols + c] & 0xff;
+        }
+
+        @Override
+        public int stateCount() {
+            return rule.states;
+        }
+
+        @Override
+        public long population() {
+            long count = 0;
+            for (byte cell : cells) {
+                if (cell == 1) count++;
+            }
+            return count;
+        }
+
+        @Override
+        public void step() {
+            if (rule.box) {
+                stepBox();
+            } else {
+                stepMoore();
+            }
+
+            // Swap buffers
+            byte[] temp = cells;
+            cells = nextGen;
+            nextGen = temp;
+        }
+
+        private void stepMoore() {
+            byte[] table = rule.table;
+            for (int r = 0; r < rows; r++) {
+                int base = r * cols;
+                int key = triple(r, 0); // columns -2, -1 are outside the board
+                for (int c = 0; c < cols; c++) {
+                    key = ((key << 3) | triple(r, c + 1)) & 0x1ff;
+                    int state = cells[base + c] & 0xff;
+                    nextGen[base + c] = table[(state << 9) | key];
+                }
+            }
+        }
+
+        // Live bits of column c in rows r-1, r, r+1, top row in the high bit
+        private int triple(int r, int c) {
+            if (c >= cols) return 0;
+            int i = r * cols + c;
+            int bits = cells[i] == 1 ? 2 : 0;
+            if (r > 0 && cells[i - cols] == 1) bits |= 4;
+            if (r < rows - 1 && cells[i + cols] == 1) bits |= 1;
+            return bits;
+        }
+
+        private void stepBox() {
+            int radius = rule.radius;
+            int stride = rule.stride;
+            byte[] table = rule.table;
+            int[] columnSums = new int[cols]; // live cells of each column in rows r-R..r+R
+            for (int r = 0; r <= Math.min(radius, rows - 1); r++) {
+                addRow(columnSums, r, 1);
+            }
+            for (int r = 0; r < rows; r++) {
+                int base = r * cols;
+                int box = 0;
+                for (int c = 0; c <= Math.min(radius, cols - 1); c++) {
+                    box += columnSums[c];
+                }
+                for (int c = 0; c < cols; c++) {
+                    int state = cells[base + c] & 0xff;
+                    nextGen[base + c] = table[state * stride + box];
+                    if (c + radius + 1 < cols) box += columnSums[c + radius + 1];
+                    if (c - radius >= 0) box -= columnSums[c - radius];
+                }
+                if (r + radius + 1 < rows) addRow(columnSums, r + radius + 1, 1);
+                if (r - radius >= 0) addRow(columnSums, r - radius, -1);
+            }
+        }
+
+        private void addRow(int[] columnSums, int r, int sign) {
+            int base = r * cols;
             for (int c = 0; c < cols; c++) {
-                int neighbors = countNeighbors(r, c);
-                if (cells[r][c]) {
-                    // Any live cell with two or three live neighbors survives.
-                    nextGen[r][c] = (neighbors == 2 || neighbors == 3);
+                if (cells[base + c] == 1) columnSums[c] += sign;
+            }
+        }
+    }
+
+    /*
+     * Pattern loading. RLE is parsed as a stream, one character at a time, so a file
+     * never has to fit in memory as text. Macrocell files are rebuilt node by node with
+     * Hashlife's canonical join; a Hashlife target adopts the tree as is, whatever its
+     * size, and other engines receive its live cells with empty subtrees skipped. The
+     * pattern is centered on the board, and bounded engines drop what falls outside.
+     */
+    private static class PatternIO {
+        // Rule named in the leading lines of an RLE or macrocell file, or null
+        static String readRule(Path file) throws IOException {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+                String first = in.readLine();
+                boolean macrocell = first != null && first.startsWith("[M2]");
+                for (String line = first; line != null; line = in.readLine()) {
+                    // Macrocell spells the rule #R; in RLE #R is a position and the old rule line is #r
+                    if (line.startsWith(macrocell ? "#R" : "#r")) return line.substring(2).trim();
+                    if (!macrocell && line.trim().startsWith("x")) {
+                        for (String field : line.split(",")) {
+                            String[] kv = field.split("=", 2);
+                            if (kv.length == 2 && kv[0].trim().equals("rule")) return kv[1].trim();
+                        }
+                        return null;
+                    }
+                    if (!line.startsWith("#") && !line.startsWith("[M2]") && !line.trim().isEmpty()) return null;
+                }
+                return null;
+            }
+        }
+
+        // Loads an RLE or macrocell file into `target` and returns the rule it names, or null
+        static String load(Path file, LifeEngine target, int rows, int cols) throws IOException {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+                String first = in.readLine();
+                if (first == null) {
+                    throw new IllegalArgumentException("Empty pattern file: " + file);
+                }
+                if (first.startsWith("[M2]")) {
+                    return loadMacrocell(in, target, rows, cols);
+                }
+                return loadRle(first, in, target, rows, cols);
+            }
+        }
+
+        private static String loadRle(String first, BufferedReader in, LifeEngine target, int rows, int cols)
+                throws IOException {
+            String line = first;
+            String rule = null;
+            while (line != null && (line.startsWith("#") || line.trim().isEmpty())) {
+                if (line.startsWith("#r")) rule = line.substring(2).trim();
+                line = in.readLine();
+            }
+            int width = 0;
+            int height = 0;
+            if (line != null && line.trim().startsWith("x")) {
+                for (String field : line.split(",")) {
+                    String[] kv = field.split("=", 2);
+                    if (kv.length != 2) continue;
+                    String key = kv[0].trim();
+                    String value = kv[1].trim();
+                    try {
+                        if (key.equals("x")) width = Integer.parseInt(value);
+                        if (key.equals("y")) height = Integer.parseInt(value);
+                    } catch (NumberFormatException ex) {
+                        throw new IllegalArgumentException("Bad RLE header: " + line);
+                    }
+                    if (key.equals("rule")) rule = value;
+                }
+                line = "";
+            }
+
+            RleDecoder decoder = new RleDecoder(target, rows, cols, (rows - height) / 2, (cols - width) / 2);
+            for (int i = 0; line != null && i < line.length(); i++) {
+                if (!decoder.feed(line.charAt(i))) return rule;
+            }
+            int ch;
+            while ((ch = in.read()) >= 0) {
+                if (!decoder.feed((char) ch)) break;
+            }
+            return rule;
+        }
+
+        // RLE run decoder; b and . are dead, o and A alive, other states load as dead
+        private static final class RleDecoder {
+            final LifeEngine target;
+            final boolean clip;
+            final int rows, cols, top, left;
+            int row, col, run;
+            boolean prefix; // p..y start a two-letter state above 24
+
+            RleDecoder(LifeEngine target, int rows, int cols, int top, int left) {
+                this.target = target;
+                this.clip = !isUnbounded(target);
+                this.rows = rows;
+                this.cols = cols;
+                this.top = top;
+                this.left = left;
+            }
+
+            // Returns false once the terminating ! has been read
+            boolean feed(char ch) {
+                if (ch >= '0' && ch <= '9') {
+                    run = run * 10 + (ch - '0');
+                    return true;
+                }
+                if (Character.isWhitespace(ch)) return true;
+                int count = Math.max(1, run);
+                run = 0;
+                if (ch == '!') return false;
+                if (ch == '$') {
+                    row += count;
+                    col = 0;
+                } else if (ch >= 'p' && ch <= 'y' && !prefix) {
+                    prefix = true;
+                    run = count == 1 ? 0 : count; // the count belongs to the whole two-letter state
+                } else if (ch == 'o' || (ch == 'A' && !prefix)) {
+                    for (int i = 0; i < count; i++) {
+                        set(top + row, left + col + i);
+                    }
+                    col += count;
+                    prefix = false;
+                } else if (Character.isLetter(ch) || ch == '.') {
+                    col += count;
+                    prefix = false;
                 } else {
-                    // Any dead cell with three live neighbors becomes a live cell.
-                    nextGen[r][c] = (neighbors == 3);
+                    throw new IllegalArgumentException("Unexpected '" + ch + "' in RLE data");
+                }
+                return true;
+            }
+
+            private void set(int r, int c) {
+                if (!clip || (r >= 0 && r < rows && c >= 0 && c < cols)) {
+                    target.setAlive(r, c, true);
                 }
             }
         }
 
-        // Swap buffers
-        boolean[][] temp = cells;
-        cells = nextGen;
-        nextGen = temp;
-        repaint();
+        private static String loadMacrocell(BufferedReader in, LifeEngine target, int rows, int cols)
+                throws IOException {
+            HashLifeEngine builder = target instanceof HashLifeEngine ? (HashLifeEngine) target : new HashLifeEngine();
+            List<HashLifeEngine.Node> nodes = new ArrayList<>();
+            nodes.add(null); // index 0 is the empty node of whatever level is asked for
+            String rule = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("#R")) {
+                    rule = line.substring(2).trim();
+                    continue;
+                }
+                if (line.startsWith("#") || line.trim().isEmpty()) continue;
+                char first = line.charAt(0);
+                if (first == '.' || first == '*' || first == '$') {
+                    nodes.add(builder.build(3, parseLeaf(line), 0, 0));
+                    continue;
+                }
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length != 5) {
+                    throw new IllegalArgumentException("Bad macrocell line: " + line);
+                }
+                int level = Integer.parseInt(parts[0]);
+                HashLifeEngine.Node[] children = new HashLifeEngine.Node[4];
+                for (int i = 0; i < 4; i++) {
+                    int index = Integer.parseInt(parts[i + 1]);
+                    if (level == 1) {
+                        // Multi-state files spell level 1 with cell states; anything but 0 loads as alive
+                        children[i] = index == 0 ? HashLifeEngine.DEAD : HashLifeEngine.ALIVE;
+                    } else if (index == 0) {
+                        children[i] = builder.empty(level - 1);
+                    } else if (index >= nodes.size() || nodes.get(index).level != level - 1) {
+                        throw new IllegalArgumentException("Bad node reference " + index + " in: " + line);
+                    } else {
+                        children[i] = nodes.get(index);
+                    }
+                }
+                nodes.add(builder.join(children[0], children[1], children[2], children[3]));
+            }
+            if (nodes.size() == 1) {
+                throw new IllegalArgumentException("Macrocell file has no nodes");
+            }
+
+            HashLifeEngine.Node root = nodes.get(nodes.size() - 1);
+            if (target == builder) {
+                builder.adopt(root, rows / 2, cols / 2);
+            } else {
+                long half = 1L << (root.level - 1);
+                copyCells(root, rows / 2 - half, cols / 2 - half, target, rows, cols);
+            }
+            return rule;
+        }
+
+        // 8x8 leaf: rows separated by $, . dead and * alive, trailing dead cells omitted
+        private static boolean[][] parseLeaf(String line) {
+            boolean[][] alive = new boolean[8][8];
+            int r = 0;
+            int c = 0;
+            for (int i = 0; i < line.length(); i++) {
+                char ch = line.charAt(i);
+                if (ch == '$') {
+                    r++;
+                    c = 0;
+                } else if (ch == '.' || ch == '*') {
+                    if (r >= 8 || c >= 8) throw new IllegalArgumentException("Leaf larger than 8x8: " + line);
+                    alive[r][c++] = ch == '*';
+                }
+            }
+            return alive;
+        }
+
+        // Sets every live cell of n, whose top-left corner is at (top, left), skipping empty or off-board subtrees
+        private static void copyCells(HashLifeEngine.Node n, long top, long left, LifeEngine target, int rows, int cols) {
+            if (n.population == 0) return;
+            long size = 1L << n.level;
+            boolean clip = !isUnbounded(target);
+            if (clip && (top >= rows || left >= cols || top + size <= 0 || left + size <= 0)) return;
+            if (n.level == 0) {
+                if (top >= Integer.MIN_VALUE && top <= Integer.MAX_VALUE && left >= Integer.MIN_VALUE && left <= Integer.MAX_VALUE) {
+                    target.setAlive((int) top, (int) left, true);
+                }
+                return;
+            }
+            long half = size / 2;
+            copyCells(n.nw, top, left, target, rows, cols);
+            copyCells(n.ne, top, left + half, target, rows, cols);
+            copyCells(n.sw, top + half, left, target, rows, cols);
+            copyCells(n.se, top + half, left + half, target, rows, cols);
+        }
     }
 
-    // Count live neighbors of cell at (r, c)
-    private int countNeighbors(int r, int c) {
-        int count = 0;
-        for (int dr = -1; dr <= 1; dr++) {
-            for (int dc = -1; dc <= 1; dc++) {
-                if (dr == 0 && dc == 0) continue;
-                int rr = r + dr;
-                int cc = c + dc;
-                if (rr >= 0 && rr < rows && cc >= 0 && cc < cols && cells[rr][cc]) {
-                    count++;
+    /*
+     * Binary snapshot of the live cells: a 24-byte little-endian header (magic, version,
+     * rows, cols, generation) followed by each row as (cols + 63) / 64 longs, bit i of
+     * word w being column 64w + i, the same layout BitPackedEngine keeps in memory. Rows
+     * are moved through memory-mapped windows of up to 1 GB, so the file is never copied
+     * through a heap buffer. Dying states of multi-state rules are not kept.
+     */
+    private static class SnapshotIO {
+        static final String EXTENSION = ".snap";
+        private static final int MAGIC = 0x50414e53; // "SNAP" read little-endian
+        private static final int VERSION = 1;
+        private static final int HEADER_BYTES = 24;
+        private static final long WINDOW_BYTES = 1L << 30;
+
+        final int rows;
+        final int cols;
+        final long generation;
+
+        private SnapshotIO(int rows, int cols, long generation) {
+            this.rows = rows;
+            this.cols = cols;
+            this.generation = generation;
+        }
+
+        static void save(Path file, LifeEngine engine, int rows, int cols, long generation) throws IOException {
+            int words = (cols + 63) >>> 6;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+                header.order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(cols).putLong(generation);
+                header.force();
+                int rowsPerWindow = (int) Math.max(1, WINDOW_BYTES / (words * 8L));
+                for (int r0 = 0; r0 < rows; r0 += rowsPerWindow) {
+                    int r1 = Math.min(rows, r0 + rowsPerWindow);
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE,
+                            HEADER_BYTES + (long) r0 * words * 8, (long) (r1 - r0) * words * 8);
+                    LongBuffer out = window.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+                    for (int r = r0; r < r1; r++) {
+                        for (int w = 0; w < words; w++) {
+                            out.put(engine.rowWord(r, w, cols));
+                        }
+                    }
+                    window.force();
+                }
+            }
+        }
+
+        static SnapshotIO readHeader(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_BYTES) {
+                    throw new IllegalArgumentException("Not a snapshot: " + file);
+                }
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IllegalArgumentException("Not a version " + VERSION + " snapshot: " + file);
+                }
+                SnapshotIO snapshot = new SnapshotIO(header.getInt(), header.getInt(), header.getLong());
+                long expected = HEADER_BYTES + (long) snapshot.rows * ((snapshot.cols + 63) >>> 6) * 8;
+                if (snapshot.rows <= 0 || snapshot.cols <= 0 || channel.size() != expected) {
+                    throw new IllegalArgumentException("Truncated or corrupt snapshot: " + file);
+                }
+                return snapshot;
+            }
+        }
+
+        // Fills `engine`, which must be empty and at least rows x cols
+        void restore(Path file, LifeEngine engine) throws IOException {
+            int words = (cols + 63) >>> 6;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                int rowsPerWindow = (int) Math.max(1, WINDOW_BYTES / (words * 8L));
+                for (int r0 = 0; r0 < rows; r0 += rowsPerWindow) {
+                    int r1 = Math.min(rows, r0 + rowsPerWindow);
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                            HEADER_BYTES + (long) r0 * words * 8, (long) (r1 - r0) * words * 8);
+                    LongBuffer in = window.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+                    for (int r = r0; r < r1; r++) {
+                        for (int w = 0; w < words; w++) {
+                            long word = in.get();
+                            if (word != 0) engine.setRowWord(r, w, word, cols);
+                        }
+                    }
                 }
             }
         }
-        return count;
     }
 
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        g.setColor(Color.GRAY);
+    /*
+     * Draws the visible part of the board into a persistent image with one pixel per
+     * block: a single cell when zoomed in, scaled up by cellSize when drawn, or a square
+     * of cellsPerPixel cells shaded by its density when zoomed out. Cells are read 64 at
+     * a time through rowWord(). At one cell per pixel the words drawn last frame are
+     * kept, so a frame only writes pixels whose cells changed; moving the view, zooming
+     * or switching engines starts over.
+     */
+    private static class BoardRenderer {
+        private static final int DEAD = 0xffffff;
+        private static final int ALIVE = 0x000000;
+
+        private BufferedImage image;
+        private int[] pixels;
+        private int[] counts = new int[0];
+        private long[] shownWords = new long[0]; // row-major over the visible word span
+        private boolean shownValid;
+        private LifeEngine shownEngine;
+        private int shownX0;
+        private int shownY0;
+
+        // Renders blocks [bx0, bx0 + width) x [by0, by0 + height), which must lie on the board
+        BufferedImage render(LifeEngine engine, int rows, int cols, int cellsPerPixel,
+                             int bx0, int by0, int width, int height) {
+            if (image == null || image.getWidth() != width || image.getHeight() != height) {
+                image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                shownValid = false;
+            }
+            if (cellsPerPixel > 1) {
+                renderDensity(engine, rows, cols, cellsPerPixel, bx0, by0, width, height);
+                shownValid = false;
+            } else if (engine.stateCount() > 2) {
+                renderStates(engine, bx0, by0, width, height);
+                shownValid = false;
+            } else {
+                renderCells(engine, cols, bx0, by0, width, height);
+            }
+            return image;
+        }
+
+        private void renderCells(LifeEngine engine, int cols, int bx0, int by0, int width, int height) {
+            int w0 = bx0 >>> 6;
+            int span = ((bx0 + width - 1) >>> 6) - w0 + 1;
+            boolean valid = shownValid && engine == shownEngine && bx0 == shownX0 && by0 == shownY0;
+            if (shownWords.length < height * span) {
+                shownWords = new long[height * span];
+                valid = false;
+            }
+            for (int y = 0; y < height; y++) {
+                int row = y * width;
+                for (int k = 0; k < span; k++) {
+                    int w = w0 + k;
+                    long fresh = engine.rowWord(by0 + y, w, cols);
+                    int i = y * span + k;
+                    long changed = (valid ? fresh ^ shownWords[i] : -1L) & visibleMask(w, bx0, bx0 + width);
+                    shownWords[i] = fresh;
+                    while (changed != 0) {
+                        int bit = Long.numberOfTrailingZeros(changed);
+                        pixels[row + (w << 6) + bit - bx0] = (fresh >>> bit & 1L) != 0 ? ALIVE : DEAD;
+                        changed &= changed - 1;
+                    }
+                }
+            }
+            shownValid = true;
+            shownEngine = engine;
+            shownX0 = bx0;
+            shownY0 = by0;
+        }
 
-        // Draw grid
-        for (int r = 0; r <= rows; r++) {
-            g.drawLine(0, r * CELL_SIZE, cols * CELL_SIZE, r * CELL_SIZE);
+        // Bits of word w that fall in columns [from, to)
+        private static long visibleMask(int w, int from, int to) {
+            int lo = Math.max(from - (w << 6), 0);
+            int hi = Math.min(to - (w << 6), 64);
+            return (hi == 64 ? -1L : (1L << hi) - 1) & (-1L << lo);
         }
-        for (int c = 0; c <= cols; c++) {
-            g.drawLine(c * CELL_SIZE, 0, c * CELL_SIZE, rows * CELL_SIZE);
+
+        // Dying cells of multi-state rules fade from dark to light gray
+        private void renderStates(LifeEngine engine, int bx0, int by0, int width, int height) {
+            int states = engine.stateCount();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int state = engine.stateOf(by0 + y, bx0 + x);
+                    int color = DEAD;
+                    if (state == 1) {
+                        color = ALIVE;
+                    } else if (state > 1) {
+                        color = (96 + 128 * (state - 2) / Math.max(1, states - 2)) * 0x010101;
+                    }
+                    pixels[y * width + x] = color;
+                }
+            }
         }
 
-        // Draw live cells
-        g.setColor(Color.BLACK);
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                if (cells[r][c]) {
-                    g.fillRect(c * CELL_SIZE + 1, r * CELL_SIZE + 1, CELL_SIZE - 1, CELL_SIZE - 1);
+        private void renderDensity(LifeEngine engine, int rows, int cols, int cellsPerPixel,
+                                   int bx0, int by0, int width, int height) {
+            if (counts.length < width) {
+                counts = new int[width];
+            }
+            int c0 = bx0 * cellsPerPixel;
+            int c1 = Math.min(cols, (bx0 + width) * cellsPerPixel);
+            int w0 = c0 >>> 6;
+            int w1 = (c1 - 1) >>> 6;
+            int blockShift = Integer.numberOfTrailingZeros(cellsPerPixel);
+            long blockMask = cellsPerPixel >= 64 ? -1L : (1L << cellsPerPixel) - 1;
+
+            for (int y = 0; y < height; y++) {
+                Arrays.fill(counts, 0, width, 0);
+                int r0 = (by0 + y) * cellsPerPixel;
+                int r1 = Math.min(rows, r0 + cellsPerPixel);
+                for (int r = r0; r < r1; r++) {
+                    for (int w = w0; w <= w1; w++) {
+                        long word = engine.rowWord(r, w, cols);
+                        if (word == 0) continue;
+                        if (cellsPerPixel >= 64) {
+                            // The whole word lies in one block
+                            int x = ((w << 6) >> blockShift) - bx0;
+                            if (x >= 0 && x < width) counts[x] += Long.bitCount(word);
+                        } else {
+                            for (int off = 0; off < 64; off += cellsPerPixel) {
+                                long part = word >>> off & blockMask;
+                                if (part == 0) continue;
+                                int x = (((w << 6) + off) >> blockShift) - bx0;
+                                if (x >= 0 && x < width) counts[x] += Long.bitCount(part);
+                            }
+                        }
+                    }
+                }
+
+                // The square root keeps sparse blocks visible; any live cell gets at least a light gray
+                int blockRows = r1 - r0;
+                for (int x = 0; x < width; x++) {
+                    int color = DEAD;
+                    if (counts[x] > 0) {
+                        int blockCols = Math.min(cellsPerPixel, cols - (bx0 + x) * cellsPerPixel);
+                        double density = (double) counts[x] / (blockCols * blockRows);
+                        int shade = Math.min(215, 255 - (int) (Math.sqrt(density) * 255));
+                        color = shade * 0x010101;
+                    }
+                    pixels[y * width + x] = color;
                 }
             }
         }
     }
 
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+
+        // The engine is mid-step on another thread during a batch
+        if (batchRunning) return;
+
+        // Only the visible blocks are rendered, so the cost follows the window, not the board
+        Rectangle visible = getVisibleRect();
+        int bx0 = Math.max(0, visible.x / cellSize);
+        int by0 = Math.max(0, visible.y / cellSize);
+        int bx1 = Math.min((cols + cellsPerPixel - 1) / cellsPerPixel, (visible.x + visible.width + cellSize - 1) / cellSize);
+        int by1 = Math.min((rows + cellsPerPixel - 1) / cellsPerPixel, (visible.y + visible.height + cellSize - 1) / cellSize);
+        if (bx1 <= bx0 || by1 <= by0) return;
+
+        BufferedImage image = renderer.render(engine, rows, cols, cellsPerPixel, bx0, by0, bx1 - bx0, by1 - by0);
+        g.drawImage(image, bx0 * cellSize, by0 * cellSize, (bx1 - bx0) * cellSize, (by1 - by0) * cellSize, null);
+
+        // Draw grid once cells are big enough to tell apart
+        if (cellsPerPixel == 1 && cellSize >= 4) {
+            g.setColor(Color.GRAY);
+            for (int r = by0; r <= by1; r++) {
+                g.drawLine(bx0 * cellSize, r * cellSize, bx1 * cellSize, r * cellSize);
+            }
+            for (int c = bx0; c <= bx1; c++) {
+                g.drawLine(c * cellSize, by0 * cellSize, c * cellSize, by1 * cellSize);
+            }
+        }
+    }
+
     @Override
     public void actionPerformed(ActionEvent e) {
         nextGeneration();
     }
 
+    // Only the rule table engine runs arbitrary rules, so a new rule switches to it
+    private void applyRule(Rule next, JComboBox<String> engineBox) {
+        rule = next;
+        if ("Rule table".equals(engineBox.getSelectedItem())) {
+            switchEngine(new RuleTableEngine(rows, cols, rule));
+        } else {
+            engineBox.setSelectedItem("Rule table");
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: java main.java [rows cols [engine [threads [rule]]]] | --bench [options]");
+        System.out.println("Engines: " + String.join(", ", ENGINE_NAMES));
+        System.out.println("Benchmark options:");
+        System.out.println("  --pattern FILE      RLE, macrocell or " + SnapshotIO.EXTENSION + " file (default a random soup)");
+        System.out.println("  --size RxC          board size (default 1000x1000; a snapshot brings its own)");
+        System.out.println("  --engines A,B,...   engines to compare (default Bit-packed)");
+        System.out.println("  --gens N            generations to run (default 1000)");
+        System.out.println("  --threads N         stripes for the bit-packed engine (default 1)");
+        System.out.println("  --rule RULE         rule for the rule table engine (default the pattern's, else B3/S23)");
+        System.out.println("  --step-exp K        Hashlife advances 2^K generations per step (default 0)");
+        System.out.println("  --seed N            random soup seed (default 1)");
+        System.out.println("  --density D         random soup density (default 0.2)");
+        System.out.println("  --save FILE         write the last engine's final board as a snapshot");
+    }
+
+    /*
+     * Runs the same starting board through each engine in turn and prints load time,
+     * run time, generations/s and the final population. Everything is seeded, so runs
+     * are repeatable and the populations can be compared across engines.
+     */
+    private static void runBenchmark(String[] args) throws IOException {
+        Path pattern = null;
+        int rows = 1000;
+        int cols = 1000;
+        String[] engines = {"Bit-packed"};
+        long gens = 1000;
+        int threads = 1;
+        String ruleText = null;
+        int stepExponent = 0;
+        long seed = 1;
+        double density = 0.2;
+        Path save = null;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--pattern":
+                    pattern = Paths.get(value);
+                    break;
+                case "--size":
+                    String[] size = value.toLowerCase().split("x");
+                    if (size.length != 2) throw new IllegalArgumentException("Size must be RxC: " + value);
+                    rows = Integer.parseInt(size[0]);
+                    cols = Integer.parseInt(size[1]);
+                    break;
+                case "--engines":
+                    engines = value.split(",");
+                    break;
+                case "--gens":
+                    gens = Long.parseLong(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--rule":
+                    ruleText = value;
+                    break;
+                case "--step-exp":
+                    stepExponent = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--density":
+                    density = Double.parseDouble(value);
+                    break;
+                case "--save":
+                    save = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        SnapshotIO snapshot = null;
+        if (pattern != null && pattern.toString().endsWith(SnapshotIO.EXTENSION)) {
+            snapshot = SnapshotIO.readHeader(pattern);
+            rows = snapshot.rows;
+            cols = snapshot.cols;
+        }
+        if (rows <= 0 || cols <= 0 || gens <= 0) {
+            throw new IllegalArgumentException("Benchmark needs a positive board size and generation count");
+        }
+
+        if (ruleText == null && pattern != null && snapshot == null) {
+            ruleText = PatternIO.readRule(pattern);
+        }
+        Rule rule = Rule.parse(ruleText != null ? ruleText : DEFAULT_RULE);
+        for (String name : engines) {
+            if (!rule.isLife() && !name.trim().equals("Rule table")) {
+                throw new IllegalArgumentException(name.trim() + " only runs B3/S23; use \"Rule table\" for " + rule.text);
+            }
+        }
+
+        System.out.printf("%-11s %10s %10s %12s %14s %14s%n", "engine", "load ms", "run ms", "generations", "gens/s", "population");
+        long firstPopulation = -1;
+        for (String name : engines) {
+            name = name.trim();
+            LifeEngine engine = createEngine(name, rows, cols, threads, rule);
+            if (engine instanceof HashLifeEngine) {
+                ((HashLifeEngine) engine).setStepExponent(stepExponent);
+            }
+
+            long loadStart = System.nanoTime();
+            if (snapshot != null) {
+                snapshot.restore(pattern, engine);
+            } else if (pattern != null) {
+                PatternIO.load(pattern, engine, rows, cols);
+            } else {
+                Random random = new Random(seed);
+                for (int r = 0; r < rows; r++) {
+                    for (int c = 0; c < cols; c++) {
+                        if (random.nextDouble() < density) engine.setAlive(r, c, true);
+                    }
+                }
+            }
+            long loadNanos = System.nanoTime() - loadStart;
+
+            long steps = Math.max(1, gens / engine.stepSize());
+            long start = System.nanoTime();
+            for (long i = 0; i < steps; i++) {
+                engine.step();
+            }
+            long nanos = Math.max(1, System.nanoTime() - start);
+            long ran = steps * engine.stepSize();
+            long population = engine.population();
+            System.out.printf("%-11s %10.1f %10.1f %,12d %,14.0f %,14d%n", name, loadNanos / 1e6, nanos / 1e6,
+                    ran, ran * 1e9 / nanos, population);
+            if (firstPopulation < 0) {
+                firstPopulation = population;
+            } else if (population != firstPopulation) {
+                System.out.println("  population differs from " + engines[0].trim()
+                        + " (bounded and unbounded engines part ways once the pattern reaches the edge)");
+            }
+            if (save != null && name.equals(engines[engines.length - 1].trim())) {
+                SnapshotIO.save(save, engine, rows, cols, ran);
+            }
+            engine.close();
+        }
+    }
+
     private void createAndShowGUI() {
         JFrame frame = new JFrame("Cellular Automaton - Conway's Game of Life");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setLayout(new BorderLayout());
 
-        JPanel controlPanel = new JPanel();
+        // Simulation controls on the first row, engine and view settings on the second
+        JPanel controlPanel = new JPanel(new GridLayout(2, 1));
+        JPanel runPanel = new JPanel();
+        JPanel settingsPanel = new JPanel();
 
         JButton startBtn = new JButton("Start");
         JButton stopBtn = new JButton("Stop");
         JButton randomizeBtn = new JButton("Randomize");
         JLabel speedLabel = new JLabel("Speed(ms):");
         JTextField speedField = new JTextField(Integer.toString(TIMER_DELAY), 4);
+        JComboBox<String> engineBox = new JComboBox<>(ENGINE_NAMES);
+        engineBox.setSelectedItem(engineName(engine));
+        JSpinner stepSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 40, 1));
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = engine instanceof BitPackedEngine ? ((BitPackedEngine) engine).threads() : 1;
+        JSpinner threadSpinner = new JSpinner(new SpinnerNumberModel(threads, 1, Math.max(cores, threads), 1));
+        threadSpinner.setToolTipText("Row stripes stepped in parallel by the bit-packed engine");
+        threadSpinner.setEnabled(engine instanceof BitPackedEngine);
+        JTextField ruleField = new JTextField(rule.text, 12);
+        ruleField.setToolTipText("B3/S23, 23/3, B2/S/C3 or R5,C0,M1,S34..58,B34..45,NM; Enter applies it");
+        JTextField batchField = new JTextField("1000", 6);
+        JButton zoomInBtn = new JButton("+");
+        JButton zoomOutBtn = new JButton("-");
+        zoomInBtn.setToolTipText("Zoom in (Ctrl+wheel)");
+        zoomOutBtn.setToolTipText("Zoom out (Ctrl+wheel); past 1px a pixel shades a block of cells by density");
+        JButton batchBtn = new JButton("Run N");
+        batchBtn.setToolTipText("Run N steps without repainting and report generations/s");
+        JButton loadBtn = new JButton("Load...");
+        loadBtn.setToolTipText("Load an RLE or macrocell pattern, or a " + SnapshotIO.EXTENSION + " snapshot");
+        JButton saveBtn = new JButton("Save...");
+        saveBtn.setToolTipText("Save the board as a " + SnapshotIO.EXTENSION + " snapshot");
+        JFileChooser chooser = new JFileChooser(new File("."));
+        stepSpinner.setToolTipText("Hashlife advances 2^k generations per tick");
+        stepSpinner.setEnabled(engine instanceof HashLifeEngine);
 
         startBtn.addActionListener(e -> timer.start());
         stopBtn.addActionListener(e -> timer.stop());
@@ -149,23 +2197,159 @@ public class CellularAutomaton extends JPanel implements ActionListener {
                 JOptionPane.showMessageDialog(frame, "Invalid speed value");
             }
         });
+        // An empty rows x cols engine of the selected kind with the current settings
+        BiFunction<Integer, Integer, LifeEngine> freshEngine = (engineRows, engineCols) -> {
+            LifeEngine next = createEngine((String) engineBox.getSelectedItem(), engineRows, engineCols,
+                    (Integer) threadSpinner.getValue(), rule);
+            if (next instanceof HashLifeEngine) {
+                ((HashLifeEngine) next).setStepExponent((Integer) stepSpinner.getValue());
+            }
+            return next;
+        };
+        engineBox.addActionListener(e -> {
+            LifeEngine next = freshEngine.apply(rows, cols);
+            stepSpinner.setEnabled(next instanceof HashLifeEngine);
+            threadSpinner.setEnabled(next instanceof BitPackedEngine);
+            switchEngine(next);
+        });
+        ruleField.addActionListener(e -> {
+            try {
+                applyRule(Rule.parse(ruleField.getText()), engineBox);
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(frame, ex.getMessage());
+            }
+        });
+        loadBtn.addActionListener(e -> {
+            if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+            timer.stop();
+            Path file = chooser.getSelectedFile().toPath();
+            try {
+                if (file.toString().endsWith(SnapshotIO.EXTENSION)) {
+                    SnapshotIO snapshot = SnapshotIO.readHeader(file);
+                    LifeEngine next = freshEngine.apply(snapshot.rows, snapshot.cols);
+                    snapshot.restore(file, next);
+                    replaceEngine(next, snapshot.rows, snapshot.cols, snapshot.generation);
+                } else {
+                    LifeEngine next = freshEngine.apply(rows, cols);
+                    String fileRule = PatternIO.load(file, next, rows, cols);
+                    replaceEngine(next, rows, cols, 0);
+                    if (fileRule != null) {
+                        Rule loaded = Rule.parse(fileRule);
+                        if (!loaded.isLife() || engine instanceof RuleTableEngine) {
+                            ruleField.setText(loaded.text);
+                            applyRule(loaded, engineBox);
+                        }
+                    }
+                }
+            } catch (IOException | IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(frame, "Could not load " + file.getFileName() + ": " + ex.getMessage());
+            }
+        });
+        saveBtn.addActionListener(e -> {
+            if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+            Path file = chooser.getSelectedFile().toPath();
+            if (!file.toString().endsWith(SnapshotIO.EXTENSION)) {
+                file = Paths.get(file + SnapshotIO.EXTENSION);
+            }
+            try {
+                SnapshotIO.save(file, engine, rows, cols, generation);
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(frame, "Could not save " + file.getFileName() + ": " + ex.getMessage());
+            }
+        });
+        zoomInBtn.addActionListener(e -> zoomAtCenter(true));
+        zoomOutBtn.addActionListener(e -> zoomAtCenter(false));
+        threadSpinner.addChangeListener(e -> {
+            if (engine instanceof BitPackedEngine) {
+                switchEngine(new BitPackedEngine(rows, cols, (Integer) threadSpinner.getValue()));
+            }
+        });
+        batchBtn.addActionListener(e -> {
+            try {
+                long steps = Long.parseLong(batchField.getText());
+                if (steps > 0) {
+                    runBatch(steps, startBtn, randomizeBtn, engineBox, stepSpinner, threadSpinner, ruleField,
+                            batchBtn, loadBtn, saveBtn, zoomInBtn, zoomOutBtn);
+                }
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(frame, "Invalid step count");
+            }
+        });
+        stepSpinner.addChangeListener(e -> {
+            if (engine instanceof HashLifeEngine) {
+                ((HashLifeEngine) engine).setStepExponent((Integer) stepSpinner.getValue());
+            }
+        });
 
-        controlPanel.add(startBtn);
-        controlPanel.add(stopBtn);
-        controlPanel.add(randomizeBtn);
-        controlPanel.add(speedLabel);
-        controlPanel.add(speedField);
+        runPanel.add(startBtn);
+        runPanel.add(stopBtn);
+        runPanel.add(randomizeBtn);
+        runPanel.add(speedLabel);
+        runPanel.add(speedField);
+        runPanel.add(batchField);
+        runPanel.add(batchBtn);
+        runPanel.add(loadBtn);
+        runPanel.add(saveBtn);
+        settingsPanel.add(new JLabel("Engine:"));
+        settingsPanel.add(engineBox);
+        settingsPanel.add(new JLabel("Step 2^"));
+        settingsPanel.add(stepSpinner);
+        settingsPanel.add(new JLabel("Rule:"));
+        settingsPanel.add(ruleField);
+        settingsPanel.add(new JLabel("Threads:"));
+        settingsPanel.add(threadSpinner);
+        settingsPanel.add(zoomInBtn);
+        settingsPanel.add(zoomOutBtn);
+        controlPanel.add(runPanel);
+        controlPanel.add(settingsPanel);
 
-        frame.add(this, BorderLayout.CENTER);
-        frame.add(controlPanel, BorderLayout.SOUTH);
+        JScrollPane scrollPane = new JScrollPane(this);
+        Dimension board = getPreferredSize();
+        scrollPane.setPreferredSize(new Dimension(
+                Math.min(board.width, DEFAULT_COLS * CELL_SIZE) + 20, Math.min(board.height, DEFAULT_ROWS * CELL_SIZE) + 20));
+        scrollPane.getHorizontalScrollBar().setUnitIncrement(16);
+        scrollPane.getVerticalScrollBar().setUnitIncrement(16);
+        frame.add(scrollPane, BorderLayout.CENTER);
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(controlPanel, BorderLayout.CENTER);
+        southPanel.add(statusLabel, BorderLayout.SOUTH);
+        frame.add(southPanel, BorderLayout.SOUTH);
         frame.pack();
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
     }
 
+    // Usage: java main.java [rows cols [Classic|Bit-packed|Hashlife|Chunked|"Rule table" [threads [rule]]]]
+    //        java main.java --bench [options], see --help
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].startsWith("--")) {
+            if (args[0].equals("--help")) {
+                printUsage();
+                return;
+            }
+            try {
+                if (!args[0].equals("--bench")) {
+                    throw new IllegalArgumentException("Unknown option " + args[0]);
+                }
+                runBenchmark(args);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                printUsage();
+                System.exit(1);
+            } catch (IOException e) {
+                System.out.println("Failed: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        int rows = args.length >= 2 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int cols = args.length >= 2 ? Integer.parseInt(args[1]) : DEFAULT_COLS;
+        String engineName = args.length >= 3 ? args[2] : ((long) rows * cols > 1_000_000 ? "Bit-packed" : "Classic");
+        int threads = args.length >= 4 ? Integer.parseInt(args[3]) : 1;
+        Rule rule = Rule.parse(args.length >= 5 ? args[4] : DEFAULT_RULE);
         SwingUtilities.invokeLater(() -> {
-            CellularAutomaton automaton = new CellularAutomaton(DEFAULT_ROWS, DEFAULT_COLS);
+            CellularAutomaton automaton = new CellularAutomaton(rows, cols,
+                    createEngine(engineName, rows, cols, threads, rule));
             automaton.createAndShowGUI();
         });
     }
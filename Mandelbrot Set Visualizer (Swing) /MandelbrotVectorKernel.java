@@ -0,0 +1,73 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * SIMD escape-time kernel for MandelbrotSetVisualizer, kept in its own file because
+ * jdk.incubator.vector has to be resolved when it is compiled. main.java looks this
+ * class up reflectively and stays on the scalar loop when it is missing.
+ *
+ *     javac --add-modules jdk.incubator.vector MandelbrotVectorKernel.java
+ *     java --add-modules jdk.incubator.vector main.java
+ */
+public class MandelbrotVectorKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final DoubleVector LANE_INDEX = DoubleVector.zero(SPECIES).addIndex(1);
+
+    public static int lanes() {
+        return SPECIES.length();
+    }
+
+    /*
+     * Writes escape-time counts for c = (x0 + (x + i) * step) + i * cy, i in [0, count),
+     * into out[off..]. Lanes that have escaped are masked off, so each count and each
+     * floating-point operation matches the scalar loop exactly. Points in the main
+     * cardioid or period-2 bulb are never iterated; returns how many were rejected.
+     */
+    public static long iterateRow(double x0, double step, int x, double cy, int count, int maxIter, int[] out, int off) {
+        double[] lane = new double[SPECIES.length()];
+        DoubleVector vcy = DoubleVector.broadcast(SPECIES, cy);
+        double cy2 = cy * cy;
+        long rejected = 0;
+
+        for (int i = 0; i < count; i += SPECIES.length()) {
+            VectorMask<Double> inRange = SPECIES.indexInRange(i, count);
+            DoubleVector cx = LANE_INDEX.add(x + i).mul(step).add(x0);
+
+            DoubleVector qx = cx.sub(0.25);
+            DoubleVector q = qx.mul(qx).add(cy2);
+            DoubleVector bx = cx.add(1);
+            VectorMask<Double> interior = q.mul(q.add(qx)).compare(VectorOperators.LE, 0.25 * cy2)
+                    .or(bx.mul(bx).add(cy2).compare(VectorOperators.LE, 0.0625))
+                    .and(inRange);
+            rejected += interior.trueCount();
+
+            DoubleVector zx = cx;
+            DoubleVector zy = vcy;
+            DoubleVector zx2 = zx.mul(zx);
+            DoubleVector zy2 = zy.mul(zy);
+            DoubleVector iters = DoubleVector.zero(SPECIES).blend(maxIter, interior);
+            VectorMask<Double> active = inRange.andNot(interior)
+                    .and(zx2.add(zy2).compare(VectorOperators.LT, 4.0));
+
+            for (int iter = 0; iter < maxIter && active.anyTrue(); iter++) {
+                DoubleVector nzx = zx2.sub(zy2).add(cx);
+                DoubleVector nzy = zx.mul(2).mul(zy).add(vcy);
+                zx = zx.blend(nzx, active);
+                zy = zy.blend(nzy, active);
+                zx2 = zx.mul(zx);
+                zy2 = zy.mul(zy);
+                iters = iters.add(1, active);
+                active = active.and(zx2.add(zy2).compare(VectorOperators.LT, 4.0));
+            }
+
+            iters.intoArray(lane, 0);
+            int n = Math.min(SPECIES.length(), count - i);
+            for (int k = 0; k < n; k++) {
+                out[off + i + k] = (int) lane[k];
+            }
+        }
+        return rejected;
+    }
+}
@@ -2,17 +2,76 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 public class MandelbrotSetVisualizer extends JPanel {
     private static final int WIDTH = 800;
     private static final int HEIGHT = 800;
     private static final int MAX_ITER = 200;
-    private static final double DEFAULT_ZOOM = 0.009;
+    private static final double DEFAULT_ZOOM = 0.009; // complex-plane units per pixel
+    private static final double DEEP_ZOOM_THRESHOLD = 1e-12; // below this doubles run out of mantissa
+    private static final double MIN_ZOOM = 1e-280; // squared deltas underflow past this
+    private static final int TILE_SIZE = 64;
+    private static final int FRAME_CACHE_SIZE = 8; // 2.5 MB of counts per cached 800x800 frame
+    private static final BigDecimal DEFAULT_CENTER_X = new BigDecimal("-0.6");
+    private static final BigDecimal DEFAULT_CENTER_Y = BigDecimal.ZERO;
     private double zoom = DEFAULT_ZOOM;
-    private double centerX = -0.6;
-    private double centerY = 0.0;
+    private BigDecimal centerX = DEFAULT_CENTER_X;
+    private BigDecimal centerY = DEFAULT_CENTER_Y;
 
     private BufferedImage image;
+    private int[] pixels;
+    private final Palette palette = new Palette(buildPalette(MAX_ITER, 0f));
+    private float hueOffset = 0f;
+    private final Map<ViewKey, IterationFrame> frameCache = new LinkedHashMap<ViewKey, IterationFrame>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ViewKey, IterationFrame> eldest) {
+            return size() > FRAME_CACHE_SIZE;
+        }
+    };
+    private IterationFrame currentFrame;
+    private final TileRenderer renderer = new TileRenderer(Runtime.getRuntime().availableProcessors());
+    private TileRenderer.RenderJob currentJob;
+    private boolean borderTrace = false;
+    private boolean simd = SimdKernel.isAvailable();
+    private JLabel statusLabel = new JLabel(" ");
     private JFrame frame = new JFrame("Mandelbrot Set Visualizer");
 
     public MandelbrotSetVisualizer() {
@@ -24,29 +83,41 @@ public class MandelbrotSetVisualizer extends JPanel {
         JButton zoomOut = new JButton("Zoom Out");
         JButton recenter = new JButton("Recenter");
         JButton colorShift = new JButton("Color Shift");
+        JCheckBox borderTraceBox = new JCheckBox("Border Trace", borderTrace);
+        borderTraceBox.setToolTipText("Faster, but approximate: can fill over escaping pixels narrower than one pixel");
+        JCheckBox simdBox = new JCheckBox(SimdKernel.isAvailable() ? "SIMD (" + SimdKernel.lanes() + " lanes)" : "SIMD", simd);
+        simdBox.setEnabled(SimdKernel.isAvailable());
+        if (!SimdKernel.isAvailable()) {
+            simdBox.setToolTipText("Compile MandelbrotVectorKernel.java and run with --add-modules jdk.incubator.vector");
+        }
 
-        zoomIn.addActionListener(e -> { zoom *= 0.6; repaint(); });
-        zoomOut.addActionListener(e -> { zoom /= 0.6; repaint(); });
-        recenter.addActionListener(e -> { zoom = DEFAULT_ZOOM; centerX = -0.6; centerY = 0.0; repaint(); });
-        colorShift.addActionListener(e -> { repaint(); });
+        zoomIn.addActionListener(e -> { zoom = Math.max(zoom * 0.6, MIN_ZOOM); render(); });
+        zoomOut.addActionListener(e -> { zoom /= 0.6; render(); });
+        recenter.addActionListener(e -> { zoom = DEFAULT_ZOOM; centerX = DEFAULT_CENTER_X; centerY = DEFAULT_CENTER_Y; render(); });
+        colorShift.addActionListener(e -> { hueOffset = (hueOffset + 0.1f) % 1.0f; recolor(); });
+        borderTraceBox.addActionListener(e -> { borderTrace = borderTraceBox.isSelected(); render(); });
+        simdBox.addActionListener(e -> { simd = simdBox.isSelected(); render(); });
 
         controlPanel.add(zoomIn);
         controlPanel.add(zoomOut);
         controlPanel.add(recenter);
         controlPanel.add(colorShift);
+        controlPanel.add(borderTraceBox);
+        controlPanel.add(simdBox);
+        controlPanel.add(statusLabel);
 
         image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
 
         // Mouse movement for recentering
         addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
                 // Recenter on mouse click
-                double dx = (e.getX() - WIDTH / 2.0) / (double)WIDTH;
-                double dy = (e.getY() - HEIGHT / 2.0) / (double)HEIGHT;
-                centerX += dx * zoom * 2;
-                centerY += dy * zoom * 2;
-                repaint();
+                MathContext mc = precisionFor(zoom);
+                centerX = centerX.add(new BigDecimal((e.getX() - WIDTH / 2.0) * zoom), mc);
+                centerY = centerY.add(new BigDecimal((e.getY() - HEIGHT / 2.0) * zoom), mc);
+                render();
             }
         });
 
@@ -57,66 +128,1218 @@ public class MandelbrotSetVisualizer extends JPanel {
         frame.pack();
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
+
+        render();
+    }
+
+    private static int[] buildPalette(int maxIter, float hueOffset) {
+        int[] colors = new int[maxIter];
+        for (int i = 0; i < maxIter; i++) {
+            float t = (float)i / (float)maxIter;
+            colors[i] = Color.HSBtoRGB((t * 10.0f + hueOffset) % 1.0f, 0.8f, 1.0f);
+        }
+        return colors;
+    }
+
+    // Maps a count to its pixel color; interior points are black
+    private static int colorOf(int iter, int[] colors) {
+        return iter < colors.length ? colors[iter] : 0x000000;
+    }
+
+    // Rebuilds the palette and repaints the current frame from its cached counts, without iterating
+    private void recolor() {
+        if (currentFrame == null) return;
+        palette.colors = buildPalette(currentFrame.key.maxIter, hueOffset);
+        paintCounts(currentFrame, palette.colors);
+        repaint();
+    }
+
+    // Colors every pixel of the frame whose count is known; the rest keep whatever preview is showing
+    private void paintCounts(IterationFrame source, int[] colors) {
+        int[] counts = source.counts;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] >= 0) {
+                pixels[i] = colorOf(counts[i], colors);
+            }
+        }
+    }
+
+    // Enough decimal digits to resolve a single pixel at this zoom, plus guard digits
+    private static MathContext precisionFor(double zoom) {
+        int digits = (int) Math.ceil(-Math.log10(zoom)) + 20;
+        return new MathContext(Math.max(digits, 34));
+    }
+
+    // Deep views need more iterations before the boundary detail shows up
+    private static int iterationLimit(double zoom) {
+        if (zoom >= DEEP_ZOOM_THRESHOLD) return MAX_ITER;
+        return MAX_ITER + (int) (100 * Math.log10(DEEP_ZOOM_THRESHOLD / zoom)) + 1000;
+    }
+
+    /*
+     * Starts a background render of the current view, abandoning any render still in
+     * flight. Counts are reused from the frame cache where possible: a cached view of
+     * the same scale that is offset by whole pixels is shifted into place, so only
+     * pixels it does not cover are iterated. A complete exact match needs no work.
+     */
+    private void render() {
+        if (currentJob != null) {
+            currentJob.cancel();
+            currentJob = null;
+        }
+        int maxIter = iterationLimit(zoom);
+        boolean deep = zoom < DEEP_ZOOM_THRESHOLD;
+        frame.setTitle(String.format("Mandelbrot Set Visualizer - %.3e units/pixel%s", zoom, deep ? " (deep zoom)" : ""));
+
+        ViewKey key = new ViewKey(centerX, centerY, zoom, maxIter, borderTrace);
+        IterationFrame previous = currentFrame;
+        IterationFrame next = frameCache.get(key);
+        if (next == null) {
+            next = new IterationFrame(key, WIDTH * HEIGHT);
+            IterationFrame source = null;
+            int[] shift = null;
+            for (IterationFrame cached : frameCache.values()) {
+                int[] s = cached.key.pixelShift(key);
+                if (s != null && (shift == null || Math.abs(s[0]) + Math.abs(s[1]) < Math.abs(shift[0]) + Math.abs(shift[1]))) {
+                    source = cached;
+                    shift = s;
+                }
+            }
+            if (source != null) {
+                next.copyShifted(source, shift[0], shift[1]);
+            }
+            frameCache.put(key, next);
+        }
+        currentFrame = next;
+
+        int[] colors = buildPalette(maxIter, hueOffset);
+        palette.colors = colors;
+        if (previous != null && previous != next) {
+            previewFrom(previous, colors);
+        }
+        paintCounts(next, colors);
+        repaint();
+        if (next.complete) {
+            statusLabel.setText("Recolored from cached counts");
+            return;
+        }
+
+        RenderStats stats = new RenderStats();
+        FrameKernel.Factory factory = kernelFactory(centerX, centerY, zoom, WIDTH, HEIGHT, maxIter, simd);
+        statusLabel.setText("Rendering...");
+        IterationFrame target = next;
+        currentJob = renderer.render(factory, WIDTH, HEIGHT, target.counts, pixels, palette,
+                borderTrace, stats, (x, y, w, h) -> repaint(x, y, w, h), () -> SwingUtilities.invokeLater(() -> {
+                    target.complete = true;
+                    if (currentFrame == target) statusLabel.setText(stats.summary());
+                }));
+    }
+
+    // Instant nearest-neighbour preview of a pan or zoom: resamples the previous frame's counts onto the new view
+    private void previewFrom(IterationFrame previous, int[] colors) {
+        ViewKey from = previous.key;
+        double ratio = zoom / from.zoom;
+        double offsetX = centerX.subtract(from.centerX).doubleValue() / from.zoom;
+        double offsetY = centerY.subtract(from.centerY).doubleValue() / from.zoom;
+        int background = getBackground().getRGB();
+        for (int y = 0; y < HEIGHT; y++) {
+            int sy = (int) Math.floor((y - HEIGHT / 2.0) * ratio + offsetY + HEIGHT / 2.0);
+            for (int x = 0; x < WIDTH; x++) {
+                int sx = (int) Math.floor((x - WIDTH / 2.0) * ratio + offsetX + WIDTH / 2.0);
+                int iter = sx >= 0 && sx < WIDTH && sy >= 0 && sy < HEIGHT ? previous.counts[sy * WIDTH + sx] : -1;
+                pixels[y * WIDTH + x] = iter >= 0 ? colorOf(iter, colors) : background;
+            }
+        }
+    }
+
+    // Identity of a rendered view; two keys with the same scale and limits can share counts
+    private static class ViewKey {
+        final BigDecimal centerX, centerY;
+        final double zoom;
+        final int maxIter;
+        final boolean borderTrace; // border tracing may differ from the exact counts, so it gets its own entries
+
+        ViewKey(BigDecimal centerX, BigDecimal centerY, double zoom, int maxIter, boolean borderTrace) {
+            this.centerX = centerX.stripTrailingZeros();
+            this.centerY = centerY.stripTrailingZeros();
+            this.zoom = zoom;
+            this.maxIter = maxIter;
+            this.borderTrace = borderTrace;
+        }
+
+        // Whole-pixel offset {dx, dy} of view `to` relative to this one, or null if they share no pixels
+        int[] pixelShift(ViewKey to) {
+            if (zoom != to.zoom || maxIter != to.maxIter || borderTrace != to.borderTrace) return null;
+            double dx = to.centerX.subtract(centerX).doubleValue() / zoom;
+            double dy = to.centerY.subtract(centerY).doubleValue() / zoom;
+            long sx = Math.round(dx);
+            long sy = Math.round(dy);
+            if (Math.abs(dx - sx) > 1e-3 || Math.abs(dy - sy) > 1e-3) return null;
+            if (Math.abs(sx) >= WIDTH || Math.abs(sy) >= HEIGHT) return null;
+            return new int[] {(int) sx, (int) sy};
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ViewKey)) return false;
+            ViewKey k = (ViewKey) o;
+            return zoom == k.zoom && maxIter == k.maxIter && borderTrace == k.borderTrace
+                && centerX.equals(k.centerX) && centerY.equals(k.centerY);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((centerX.hashCode() * 31 + centerY.hashCode()) * 31 + Double.hashCode(zoom)) * 31 + maxIter;
+        }
+    }
+
+    // Raw escape-time counts of one view; -1 marks pixels that have not been computed yet
+    private static class IterationFrame {
+        final ViewKey key;
+        final int[] counts;
+        volatile boolean complete;
+
+        IterationFrame(ViewKey key, int size) {
+            this.key = key;
+            this.counts = new int[size];
+            Arrays.fill(counts, -1);
+        }
+
+        // Copies the pixels of `source` that are still on screen after panning by (dx, dy)
+        void copyShifted(IterationFrame source, int dx, int dy) {
+            int x0 = Math.max(0, -dx);
+            int x1 = Math.min(WIDTH, WIDTH - dx);
+            for (int y = Math.max(0, -dy); y < Math.min(HEIGHT, HEIGHT - dy); y++) {
+                System.arraycopy(source.counts, (y + dy) * WIDTH + x0 + dx, counts, y * WIDTH + x0, x1 - x0);
+            }
+        }
+    }
+
+    // Current color table; "Color Shift" swaps it while tiles may still be rendering
+    private static class Palette {
+        volatile int[] colors;
+
+        Palette(int[] colors) {
+            this.colors = colors;
+        }
+    }
+
+    // Picks the double or perturbation kernel for a width x height frame centered on (cx, cy)
+    private static FrameKernel.Factory kernelFactory(BigDecimal cx, BigDecimal cy, double step, int width, int height,
+                                                     int maxIter, boolean simd) {
+        if (step < DEEP_ZOOM_THRESHOLD) {
+            return () -> new PerturbationKernel(
+                    ReferenceOrbit.compute(cx, cy, maxIter, precisionFor(step)), step, width, height, maxIter);
+        }
+        double x0 = cx.doubleValue() - width / 2.0 * step;
+        double y0 = cy.doubleValue() - height / 2.0 * step;
+        return () -> new DoubleKernel(x0, y0, step, maxIter, simd);
+    }
+
+    // Indices into a kernel tally; escapeTime adds to the first two as its saved[] accumulator
+    private static final int SAVED_CARDIOID = 0;
+    private static final int SAVED_PERIODICITY = 1;
+    private static final int TALLY_ITERATIONS = 2;
+
+    /*
+     * Same count as the brute-force loop, with two exact shortcuts for points in the set:
+     *  - the main cardioid and the period-2 bulb are rejected analytically;
+     *  - Brent cycle detection stops once z repeats a checkpoint bit for bit, since a
+     *    repeating double orbit can never escape.
+     * Iterations the brute-force loop would have spent are added to saved[].
+     */
+    static int escapeTime(double cx, double cy, int maxIter, long[] saved) {
+        double qx = cx - 0.25;
+        double cy2 = cy * cy;
+        double q = qx * qx + cy2;
+        if (q * (q + qx) <= 0.25 * cy2 || (cx + 1) * (cx + 1) + cy2 <= 0.0625) {
+            saved[SAVED_CARDIOID] += maxIter;
+            return maxIter;
+        }
+
+        double zx = cx;
+        double zy = cy;
+        int iter = 0;
+
+        double zx2 = zx * zx;
+        double zy2 = zy * zy;
+        double zzx, zzy;
+
+        double checkX = zx;
+        double checkY = zy;
+        int checkPeriod = 8;
+        int sinceCheck = 0;
+
+        while (zx2 + zy2 < 4.0 && iter < maxIter) {
+            zzx = zx2 - zy2 + cx;
+            zzy = 2 * zx * zy + cy;
+            zx = zzx;
+            zy = zzy;
+            zx2 = zx * zx;
+            zy2 = zy * zy;
+            iter++;
+
+            if (zx == checkX && zy == checkY) {
+                saved[SAVED_PERIODICITY] += maxIter - iter;
+                return maxIter;
+            }
+            if (++sinceCheck == checkPeriod) {
+                sinceCheck = 0;
+                checkPeriod <<= 1;
+                checkX = zx;
+                checkY = zy;
+            }
+        }
+        return iter;
+    }
+
+    // Per-render iteration counters; "saved" counts are iterations the brute-force loop would have run
+    private static class RenderStats {
+        final LongAdder iterations = new LongAdder();
+        final LongAdder cardioidSaved = new LongAdder();
+        final LongAdder periodicitySaved = new LongAdder();
+        final LongAdder borderSaved = new LongAdder();
+
+        String summary() {
+            long cardioid = cardioidSaved.sum();
+            long periodicity = periodicitySaved.sum();
+            long border = borderSaved.sum();
+            long bruteForce = iterations.sum() + cardioid + periodicity + border;
+            double pct = bruteForce == 0 ? 0 : 100.0 * (cardioid + periodicity + border) / bruteForce;
+            return String.format("Saved %.1f%% of %,d iterations (cardioid %,d, periodicity %,d, border %,d)",
+                    pct, bruteForce, cardioid, periodicity, border);
+        }
+
+        static long[] newTally() {
+            return new long[3];
+        }
+
+        // Moves a kernel tally into the shared counters and clears it for reuse
+        void add(long[] tally) {
+            iterations.add(tally[TALLY_ITERATIONS]);
+            cardioidSaved.add(tally[SAVED_CARDIOID]);
+            periodicitySaved.add(tally[SAVED_PERIODICITY]);
+            Arrays.fill(tally, 0);
+        }
+    }
+
+    // Computes escape-time counts for the pixels of one frame
+    private interface FrameKernel {
+        /*
+         * Writes counts for pixels [x, x + count) of row y into out[off..] and adds the
+         * work done to `tally` (see RenderStats.newTally). The tally belongs to the
+         * caller, so one kernel can serve several threads and a caller iterating single
+         * pixels pays for the shared counters once per batch instead of once per call.
+         */
+        void iterateRow(int y, int x, int count, int[] out, int off, long[] tally);
+
+        // Builds the kernel on a worker thread, so expensive setup stays off the EDT
+        interface Factory {
+            FrameKernel create();
+        }
+    }
+
+    // Plain double-precision escape-time loop, accurate down to DEEP_ZOOM_THRESHOLD
+    private static class DoubleKernel implements FrameKernel {
+        private final double x0, y0, step;
+        private final int maxIter;
+        private final boolean simd;
+
+        DoubleKernel(double x0, double y0, double step, int maxIter, boolean simd) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.step = step;
+            this.maxIter = maxIter;
+            this.simd = simd && SimdKernel.isAvailable();
+        }
+
+        @Override
+        public void iterateRow(int y, int x, int count, int[] out, int off, long[] tally) {
+            double cy = y0 + y * step;
+            if (simd && count > 1) {
+                long saved = SimdKernel.iterateRow(x0, step, x, cy, count, maxIter, out, off) * maxIter;
+                long iterations = 0;
+                for (int i = 0; i < count; i++) {
+                    iterations += out[off + i];
+                }
+                tally[TALLY_ITERATIONS] += iterations - saved;
+                tally[SAVED_CARDIOID] += saved;
+                return;
+            }
+            long savedBefore = tally[SAVED_CARDIOID] + tally[SAVED_PERIODICITY];
+            long iterations = 0;
+            for (int i = 0; i < count; i++) {
+                int iter = escapeTime(x0 + (x + i) * step, cy, maxIter, tally);
+                out[off + i] = iter;
+                iterations += iter;
+            }
+            tally[TALLY_ITERATIONS] += iterations - (tally[SAVED_CARDIOID] + tally[SAVED_PERIODICITY] - savedBefore);
+        }
+    }
+
+    // Bridge to the optional MandelbrotVectorKernel class; isAvailable() is false when it or jdk.incubator.vector is missing
+    private static final class SimdKernel {
+        private static final MethodHandle ROW;
+        private static final int LANES;
+
+        static {
+            MethodHandle row = null;
+            int lanes = 1;
+            try {
+                Class<?> kernel = Class.forName("MandelbrotVectorKernel");
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                lanes = (int) lookup.findStatic(kernel, "lanes", MethodType.methodType(int.class)).invokeExact();
+                row = lookup.findStatic(kernel, "iterateRow", MethodType.methodType(long.class,
+                        double.class, double.class, int.class, double.class, int.class, int.class, int[].class, int.class));
+            } catch (Throwable e) {
+                // Not compiled, or the incubator module was not added: stay on the scalar loop
+            }
+            // A single lane would only add masking overhead to the scalar loop
+            ROW = lanes > 1 ? row : null;
+            LANES = lanes;
+        }
+
+        static boolean isAvailable() {
+            return ROW != null;
+        }
+
+        static int lanes() {
+            return LANES;
+        }
+
+        // Same contract as MandelbrotVectorKernel.iterateRow: returns the number of cardioid/bulb rejections
+        static long iterateRow(double x0, double step, int x, double cy, int count, int maxIter, int[] out, int off) {
+            try {
+                return (long) ROW.invokeExact(x0, step, x, cy, count, maxIter, out, off);
+            } catch (Throwable e) {
+                throw new IllegalStateException("SIMD kernel failed", e);
+            }
+        }
+    }
+
+    // High-precision orbit Z(n+1) = Z(n)^2 + C of the view center, rounded to doubles for the perturbation loop
+    private static class ReferenceOrbit {
+        final double[] re;
+        final double[] im;
+        final int length;
+
+        private ReferenceOrbit(double[] re, double[] im, int length) {
+            this.re = re;
+            this.im = im;
+            this.length = length;
+        }
+
+        // Iterates from Z(0) = 0 until the orbit escapes or reaches maxIter + 1 steps
+        static ReferenceOrbit compute(BigDecimal cr, BigDecimal ci, int maxIter, MathContext mc) {
+            double[] re = new double[maxIter + 2];
+            double[] im = new double[maxIter + 2];
+            BigDecimal zr = BigDecimal.ZERO;
+            BigDecimal zi = BigDecimal.ZERO;
+            BigDecimal two = BigDecimal.valueOf(2);
+            int n = 1;
+            for (; n < re.length; n++) {
+                BigDecimal zr2 = zr.multiply(zr, mc);
+                BigDecimal zi2 = zi.multiply(zi, mc);
+                zi = two.multiply(zr, mc).multiply(zi, mc).add(ci, mc);
+                zr = zr2.subtract(zi2, mc).add(cr, mc);
+                re[n] = zr.doubleValue();
+                im[n] = zi.doubleValue();
+                if (re[n] * re[n] + im[n] * im[n] >= 4.0) {
+                    n++;
+                    break;
+                }
+            }
+            return new ReferenceOrbit(re, im, n);
+        }
+    }
+
+    /*
+     * Perturbation kernel for deep zooms. Each pixel c = C + dc is tracked as a
+     * double-precision offset d(n) = z(n) - Z(n) from the reference orbit:
+     *
+     *     d(n+1) = (2 Z(n) + d(n)) d(n) + dc
+     *
+     * A pixel glitches when its orbit passes closer to zero than to the reference
+     * (|z| < |d|), because d then loses all its significant bits. Such pixels are
+     * rebased: d takes the full value of z and the reference index restarts at
+     * Z(0) = 0. The same rebase handles a reference orbit that escapes early.
+     */
+    private static class PerturbationKernel implements FrameKernel {
+        private final ReferenceOrbit orbit;
+        private final double step;
+        private final int width, height, maxIter;
+
+        PerturbationKernel(ReferenceOrbit orbit, double step, int width, int height, int maxIter) {
+            this.orbit = orbit;
+            this.step = step;
+            this.width = width;
+            this.height = height;
+            this.maxIter = maxIter;
+        }
+
+        @Override
+        public void iterateRow(int y, int x, int count, int[] out, int off, long[] tally) {
+            double dci = (y - height / 2.0) * step;
+            long iterations = 0;
+            for (int i = 0; i < count; i++) {
+                int iter = iterate((x + i - width / 2.0) * step, dci);
+                out[off + i] = iter;
+                iterations += iter;
+            }
+            tally[TALLY_ITERATIONS] += iterations;
+        }
+
+        // Returns the same count as escapeTime, which starts at z = c and so runs one step ahead
+        private int iterate(double dcr, double dci) {
+            double[] refRe = orbit.re;
+            double[] refIm = orbit.im;
+            int last = orbit.length - 1;
+            double dr = 0, di = 0;
+            int m = 0;
+            for (int n = 1; n <= maxIter + 1; n++) {
+                double tr = 2 * refRe[m] + dr;
+                double ti = 2 * refIm[m] + di;
+                double nr = tr * dr - ti * di + dcr;
+                di = tr * di + ti * dr + dci;
+                dr = nr;
+                m++;
+
+                double zr = refRe[m] + dr;
+                double zi = refIm[m] + di;
+                double mag = zr * zr + zi * zi;
+                if (mag >= 4.0) return n - 1;
+                if (mag < dr * dr + di * di || m == last) {
+                    dr = zr;
+                    di = zi;
+                    m = 0;
+                }
+            }
+            return maxIter;
+        }
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g;
+        g2d.drawImage(image, 0, 0, this);
+    }
 
-        // Render the Mandelbrot set
-        int width = getWidth();
-        int height = getHeight();
-        double wx = -2.0 / zoom;
-        double wy = -2.0 / zoom;
-        double ww = 4.0 / zoom;
-        double wh = 4.0 / zoom;
-
-        double x0 = centerX - 2.0 / zoom;
-        double y0 = centerY - 2.0 / zoom;
-        double x1 = centerX + 2.0 / zoom;
-        double y1 = centerY + 2.0 / zoom;
-
-        int[] colors = new int[MAX_ITER];
-        for (int i = 0; i < MAX_ITER; i++) {
-            float t = (float)i / (float)MAX_ITER;
-            colors[i] = Color.HSBtoRGB(t * 10.0f % 1.0f, 0.8f, 1.0f);
-        }
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                double zx = x0 + (x1 - x0) * x / width;
-                double zy = y0 + (y1 - y0) * y / height;
-                double cx = zx;
-                double cy = zy;
-                int iter = 0;
-
-                double zx2 = zx * zx;
-                double zy2 = zy * zy;
-                double zzx, zzy;
-
-                while (zx2 + zy2 < 4.0 && iter < MAX_ITER) {
-                    zzx = zx2 - zy2 + cx;
-                    zzy = 2 * zx * zy + cy;
-                    zx = zzx;
-                    zy = zzy;
-                    zx2 = zx * zx;
-                    zy2 = zy * zy;
-                    iter++;
-                }
-
-                if (iter < MAX_ITER) {
-                    image.setRGB(x, y, colors[iter]);
-                } else {
-                    image.setRGB(x, y, 0x000000);
+    // Callback fired from a worker thread whenever a tile has been written to the pixel buffer
+    private interface TileListener {
+        void tileDone(int x, int y, int w, int h);
+    }
+
+    // Splits the viewport into TILE_SIZE squares and renders them on a ForkJoin pool
+    private static class TileRenderer {
+        private final ForkJoinPool pool;
+
+        TileRenderer(int parallelism) {
+            this.pool = new ForkJoinPool(parallelism);
+        }
+
+        void shutdown() {
+            pool.shutdown();
+        }
+
+        /*
+         * Only tiles that still contain uncomputed (-1) counts are scheduled. onDone, if
+         * not null, runs on a worker thread once every tile has been rendered, and never
+         * for a cancelled job; it is fixed before the job starts, so a job with little or
+         * nothing to do cannot finish ahead of it.
+         */
+        RenderJob render(FrameKernel.Factory factory, int width, int height, int[] counts, int[] pixels,
+                         Palette palette, boolean borderTrace, RenderStats stats, TileListener listener,
+                         Runnable onDone) {
+            List<int[]> tiles = new ArrayList<>();
+            for (int ty = 0; ty < height; ty += TILE_SIZE) {
+                for (int tx = 0; tx < width; tx += TILE_SIZE) {
+                    int tw = Math.min(TILE_SIZE, width - tx);
+                    int th = Math.min(TILE_SIZE, height - ty);
+                    if (hasMissing(counts, width, tx, ty, tw, th)) {
+                        tiles.add(new int[] {tx, ty, tw, th});
+                    }
                 }
             }
+            RenderJob job = new RenderJob(factory, width, counts, pixels, palette, borderTrace, stats, listener, tiles,
+                    onDone);
+            pool.execute(job);
+            return job;
         }
 
-        g2d.drawImage(image, 0, 0, this);
+        private static boolean hasMissing(int[] counts, int width, int tx, int ty, int tw, int th) {
+            for (int y = ty; y < ty + th; y++) {
+                for (int x = tx; x < tx + tw; x++) {
+                    if (counts[y * width + x] < 0) return true;
+                }
+            }
+            return false;
+        }
+
+        static class RenderJob extends RecursiveAction {
+            private final FrameKernel.Factory factory;
+            private final int width;
+            private final int[] counts;
+            private final int[] pixels;
+            private final Palette palette;
+            private final boolean borderTrace;
+            private final RenderStats stats;
+            private final TileListener listener;
+            private final List<int[]> tiles;
+            private final int from, to;
+            private final RenderJob root;
+            private FrameKernel kernel; // set on the root before any subtask is forked
+            private final Runnable onDone;
+            private volatile boolean cancelled;
+
+            RenderJob(FrameKernel.Factory factory, int width, int[] counts, int[] pixels, Palette palette,
+                      boolean borderTrace, RenderStats stats, TileListener listener, List<int[]> tiles,
+                      Runnable onDone) {
+                this.factory = factory;
+                this.width = width;
+                this.counts = counts;
+                this.pixels = pixels;
+                this.palette = palette;
+                this.borderTrace = borderTrace;
+                this.stats = stats;
+                this.listener = listener;
+                this.tiles = tiles;
+                this.onDone = onDone;
+                this.from = 0;
+                this.to = tiles.size();
+                this.root = this;
+            }
+
+            private RenderJob(RenderJob root, int from, int to) {
+                this.factory = root.factory;
+                this.width = root.width;
+                this.counts = root.counts;
+                this.pixels = root.pixels;
+                this.palette = root.palette;
+                this.borderTrace = root.borderTrace;
+                this.stats = root.stats;
+                this.listener = root.listener;
+                this.tiles = root.tiles;
+                this.onDone = root.onDone;
+                this.from = from;
+                this.to = to;
+                this.root = root;
+            }
+
+            /*
+             * Once this returns no tile of the job writes another pixel: tiles are colored
+             * under the same lock (the shared pixel buffer) and check the flag inside it,
+             * so a stale job cannot paint over the view that replaced it.
+             */
+            void cancel() {
+                synchronized (pixels) {
+                    cancelled = true;
+                }
+            }
+
+            boolean isCancelledRender() {
+                return root.cancelled;
+            }
+
+            @Override
+            protected void compute() {
+                if (isCancelledRender()) return;
+                if (root == this && !tiles.isEmpty()) {
+                    kernel = factory.create();
+                }
+                if (to - from > 1) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new RenderJob(root, from, mid), new RenderJob(root, mid, to));
+                } else if (to > from) {
+                    int[] tile = tiles.get(from);
+                    if (renderTile(tile[0], tile[1], tile[2], tile[3])) {
+                        listener.tileDone(tile[0], tile[1], tile[2], tile[3]);
+                    }
+                }
+                if (root == this && onDone != null && !isCancelledRender()) {
+                    onDone.run();
+                }
+            }
+
+            // Fills and colors the tile's missing counts; returns false if the render was cancelled part way through
+            private boolean renderTile(int tx, int ty, int tw, int th) {
+                long[] tally = RenderStats.newTally();
+                try {
+                    if (!computeTile(root.kernel, tally, tx, ty, tw, th)) return false;
+                } finally {
+                    stats.add(tally);
+                }
+                int[] colors = palette.colors;
+                synchronized (pixels) {
+                    if (isCancelledRender()) return false;
+                    for (int y = ty; y < ty + th; y++) {
+                        int row = y * width;
+                        for (int x = tx; x < tx + tw; x++) {
+                            pixels[row + x] = colorOf(counts[row + x], colors);
+                        }
+                    }
+                }
+                return true;
+            }
+
+            private boolean computeTile(FrameKernel kernel, long[] tally, int tx, int ty, int tw, int th) {
+                if (borderTrace) {
+                    return traceRect(kernel, tally, tx, ty, tw, th);
+                }
+                for (int y = ty; y < ty + th; y++) {
+                    if (isCancelledRender()) return false;
+                    int row = y * width;
+                    int x = tx;
+                    while (x < tx + tw) {
+                        if (counts[row + x] >= 0) {
+                            x++;
+                            continue;
+                        }
+                        int run = x;
+                        while (run < tx + tw && counts[row + run] < 0) run++;
+                        kernel.iterateRow(y, x, run - x, counts, row + x, tally);
+                        x = run;
+                    }
+                }
+                return true;
+            }
+
+            /*
+             * Mariani-Silver subdivision over rectangle (x, y, w, h): computes the border,
+             * fills the interior when the whole border shares one count, and otherwise
+             * splits along the longer side and recurses. Counts already known (shared
+             * edges, or pixels carried over by a pan) are never iterated again.
+             *
+             * Approximate by nature, which is why it is opt-in and cached apart from exact
+             * frames. The points that last n iterations form a set without holes, so
+             * anything escaping inside a border that lasted reaches outside it, but it can
+             * do so through a channel between two border samples. A few pixels per frame
+             * (0-72 on 800x800 test views) come out as maxIter when they escape a little
+             * earlier. Filling only in-set borders would not help: every miss is already
+             * inside one. The brute-force path stays pixel-identical.
+             */
+            private boolean traceRect(FrameKernel kernel, long[] tally, int x, int y, int w, int h) {
+                if (isCancelledRender()) return false;
+                int first = countAt(kernel, tally, x, y);
+                boolean uniform = true;
+                for (int i = 0; i < w; i++) {
+                    uniform &= countAt(kernel, tally, x + i, y) == first;
+                    uniform &= countAt(kernel, tally, x + i, y + h - 1) == first;
+                }
+                for (int j = 1; j < h - 1; j++) {
+                    uniform &= countAt(kernel, tally, x, y + j) == first;
+                    uniform &= countAt(kernel, tally, x + w - 1, y + j) == first;
+                }
+                if (w <= 2 || h <= 2) return true;
+
+                if (uniform) {
+                    long filled = 0;
+                    for (int j = 1; j < h - 1; j++) {
+                        int row = (y + j) * width;
+                        for (int i = 1; i < w - 1; i++) {
+                            if (counts[row + x + i] < 0) {
+                                counts[row + x + i] = first;
+                                filled++;
+                            }
+                        }
+                    }
+                    stats.borderSaved.add(filled * first);
+                    return true;
+                }
+                if (w >= h) {
+                    int half = w / 2;
+                    return traceRect(kernel, tally, x, y, half + 1, h)
+                        && traceRect(kernel, tally, x + half, y, w - half, h);
+                }
+                int half = h / 2;
+                return traceRect(kernel, tally, x, y, w, half + 1)
+                    && traceRect(kernel, tally, x, y + half, w, h - half);
+            }
+
+            private int countAt(FrameKernel kernel, long[] tally, int x, int y) {
+                int idx = y * width + x;
+                if (counts[idx] < 0) {
+                    kernel.iterateRow(y, x, 1, counts, idx, tally);
+                }
+                return counts[idx];
+            }
+        }
+    }
+
+    // Receives finished bands top to bottom; rgb holds rows * width packed R, G, B bytes
+    private interface BandWriter extends Closeable {
+        void writeBand(int y, int rows, byte[] rgb) throws IOException;
+    }
+
+    // Headerless 24-bit RGB file, sized up front and filled through one short-lived mapping per band
+    private static class RawRgbWriter implements BandWriter {
+        private final FileChannel channel;
+        private final long rowBytes;
+
+        RawRgbWriter(Path path, int width, int height) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.rowBytes = 3L * width;
+            // Extend the file to its final size so every band can be mapped in place
+            channel.write(ByteBuffer.wrap(new byte[1]), rowBytes * height - 1);
+        }
+
+        @Override
+        public void writeBand(int y, int rows, byte[] rgb) throws IOException {
+            MappedByteBuffer band = channel.map(FileChannel.MapMode.READ_WRITE, y * rowBytes, rows * rowBytes);
+            band.put(rgb, 0, (int) (rows * rowBytes));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Streaming 8-bit RGB PNG encoder: rows are deflated straight into a sequence of IDAT chunks
+    private static class PngWriter implements BandWriter {
+        private static final int IDAT_SIZE = 1 << 16;
+        private final DataOutputStream out;
+        private final DeflaterOutputStream idat;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED); // deflate is the serial bottleneck
+        private final int rowBytes;
+
+        PngWriter(Path path, int width, int height) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile()), IDAT_SIZE));
+            this.rowBytes = 3 * width;
+            out.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+
+            byte[] header = new byte[13];
+            ByteBuffer.wrap(header).putInt(width).putInt(height).put((byte) 8).put((byte) 2);
+            writeChunk("IHDR", header, header.length);
+
+            this.idat = new DeflaterOutputStream(new OutputStream() {
+                private final byte[] buffer = new byte[IDAT_SIZE];
+                private int size;
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    while (len > 0) {
+                        int n = Math.min(len, buffer.length - size);
+                        System.arraycopy(b, off, buffer, size, n);
+                        size += n;
+                        off += n;
+                        len -= n;
+                        if (size == buffer.length) flush();
+                    }
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    if (size > 0) {
+                        writeChunk("IDAT", buffer, size);
+                        size = 0;
+                    }
+                }
+            }, deflater, IDAT_SIZE);
+        }
+
+        @Override
+        public void writeBand(int y, int rows, byte[] rgb) throws IOException {
+            for (int r = 0; r < rows; r++) {
+                idat.write(0); // filter type None
+                idat.write(rgb, r * rowBytes, rowBytes);
+            }
+        }
+
+        private void writeChunk(String type, byte[] data, int length) throws IOException {
+            CRC32 crc = new CRC32();
+            byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+            crc.update(typeBytes);
+            crc.update(data, 0, length);
+            out.writeInt(length);
+            out.write(typeBytes);
+            out.write(data, 0, length);
+            out.writeInt((int) crc.getValue());
+        }
+
+        @Override
+        public void close() throws IOException {
+            idat.finish();
+            idat.flush();
+            deflater.end();
+            writeChunk("IEND", new byte[0], 0);
+            out.close();
+        }
+    }
+
+    /*
+     * Headless renderer for images far larger than the heap. Horizontal bands are
+     * computed on a fixed pool, at most two per thread in flight, and handed to the
+     * writer strictly in order, so memory use depends on width and band height only.
+     */
+    private static class BandExporter {
+        private final FrameKernel kernel;
+        private final int width, height, bandRows;
+        private final int[] colors;
+        private final RenderStats stats;
+
+        BandExporter(FrameKernel kernel, int width, int height, int bandRows, int[] colors, RenderStats stats) {
+            this.kernel = kernel;
+            this.width = width;
+            this.height = height;
+            this.bandRows = bandRows;
+            this.colors = colors;
+            this.stats = stats;
+        }
+
+        void export(BandWriter writer, int threads) throws IOException, InterruptedException {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+            int bands = (height + bandRows - 1) / bandRows;
+            int submitted = 0;
+            int lastPercent = -1;
+            try {
+                for (int band = 0; band < bands; band++) {
+                    while (submitted < bands && inFlight.size() < threads * 2) {
+                        int y = submitted++ * bandRows;
+                        inFlight.add(pool.submit(() -> renderBand(y, Math.min(bandRows, height - y))));
+                    }
+                    int y = band * bandRows;
+                    writer.writeBand(y, Math.min(bandRows, height - y), inFlight.poll().get());
+
+                    int percent = (int) (100L * (band + 1) / bands);
+                    if (percent != lastPercent) {
+                        System.out.print("\rExporting... " + percent + "%");
+                        lastPercent = percent;
+                    }
+                }
+                System.out.println();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Band render failed", e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        private byte[] renderBand(int y0, int rows) {
+            int[] counts = new int[width];
+            byte[] rgb = new byte[rows * width * 3];
+            long[] tally = RenderStats.newTally();
+            int p = 0;
+            for (int y = y0; y < y0 + rows; y++) {
+                kernel.iterateRow(y, 0, width, counts, 0, tally);
+                for (int x = 0; x < width; x++) {
+                    int color = colorOf(counts[x], colors);
+                    rgb[p++] = (byte) (color >> 16);
+                    rgb[p++] = (byte) (color >> 8);
+                    rgb[p++] = (byte) color;
+                }
+            }
+            stats.add(tally);
+            return rgb;
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: java main.java [--export <file.png|file.rgb> [options] | --bench [options]]");
+        System.out.println("  --size WxH          image size in pixels (default 800x800)");
+        System.out.println("  --center RE,IM      view center, any number of digits (default -0.6,0)");
+        System.out.println("  --zoom UNITS        complex-plane units per pixel (default frames the whole set)");
+        System.out.println("  --max-iter N        iteration limit (default grows with zoom depth)");
+        System.out.println("  --band ROWS         rows per band (default 16)");
+        System.out.println("  --threads N         worker threads (default all cores)");
+        System.out.println("  --simd              use the Vector API kernel when available");
+        System.out.println("Benchmark options:");
+        System.out.println("  --size N            square frame size (default 512)");
+        System.out.println("  --iters A,B,...     iteration limits (default 200,1000,5000)");
+        System.out.println("  --threads A,B,...   thread counts (default 1 and all cores)");
+        System.out.println("  --warmup N          warmup iterations per case (default 3)");
+        System.out.println("  --measure N         measured iterations per case (default 5)");
+        System.out.println("  --csv FILE          write results as CSV");
+        System.out.println("  --baseline FILE     compare against an earlier CSV; exit 1 on regression");
+        System.out.println("  --tolerance PCT     allowed pixels/s drop against the baseline (default 10)");
+    }
+
+    // One viewport of the benchmark matrix, framed independently of the frame size
+    private static class BenchViewport {
+        final String name;
+        final BigDecimal centerX, centerY;
+        final double span; // complex-plane width of the frame
+
+        BenchViewport(String name, String centerX, String centerY, double span) {
+            this.name = name;
+            this.centerX = new BigDecimal(centerX);
+            this.centerY = new BigDecimal(centerY);
+            this.span = span;
+        }
+    }
+
+    private static final BenchViewport[] BENCH_VIEWPORTS = {
+        new BenchViewport("full-set", "-0.6", "0", DEFAULT_ZOOM * WIDTH),
+        new BenchViewport("seahorse", "-0.743643887037151", "0.131825904205330", 0.004),
+        // Inside the period-3 bulb: no cardioid shortcut, every pixel runs into a cycle
+        new BenchViewport("interior", "-0.1225611668766536", "0.7448617666197442", 0.02),
+    };
+
+    /*
+     * Headless kernel benchmark over viewport x iteration limit x thread count x kernel.
+     * Follows JMH's methodology without the dependency (the projects here have no
+     * build): each case gets warmup renders that are discarded, then measured renders
+     * of a full frame, reported as mean and standard deviation. Iterations/s counts the
+     * iterations the brute-force loop would have run, so shortcuts show up as speed.
+     */
+    private static void runBenchmark(String[] args) throws IOException, InterruptedException {
+        int size = 512;
+        int[] iterLimits = {200, 1000, 5000};
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] threadCounts = cores > 1 ? new int[] {1, cores} : new int[] {1};
+        int warmup = 3;
+        int measure = 5;
+        Path csv = null;
+        Path baseline = null;
+        double tolerance = 10;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--size":
+                    size = Integer.parseInt(value);
+                    break;
+                case "--iters":
+                    iterLimits = parseIntList(value);
+                    break;
+                case "--threads":
+                    threadCounts = parseIntList(value);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(value);
+                    break;
+                case "--measure":
+                    measure = Integer.parseInt(value);
+                    break;
+                case "--csv":
+                    csv = Paths.get(value);
+                    break;
+                case "--baseline":
+                    baseline = Paths.get(value);
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (size <= 0 || warmup < 0 || measure <= 0) {
+            throw new IllegalArgumentException("Benchmark needs a positive size and measure count");
+        }
+
+        List<Boolean> kernels = new ArrayList<>();
+        kernels.add(false);
+        if (SimdKernel.isAvailable()) kernels.add(true);
+
+        List<String> rows = new ArrayList<>();
+        rows.add("viewport,max_iter,threads,kernel,mpixels_per_s,mpixels_error_pct,giterations_per_s");
+        System.out.printf("%-10s %8s %7s %-8s %14s %14s%n", "viewport", "maxIter", "threads", "kernel", "Mpixels/s", "Giter/s");
+        // One pool per thread count for the whole run, so idle pools from earlier cases don't pile up
+        TileRenderer[] renderers = new TileRenderer[threadCounts.length];
+        for (int t = 0; t < threadCounts.length; t++) {
+            renderers[t] = new TileRenderer(threadCounts[t]);
+        }
+        try {
+            for (BenchViewport viewport : BENCH_VIEWPORTS) {
+                for (int maxIter : iterLimits) {
+                    for (int t = 0; t < threadCounts.length; t++) {
+                        int threads = threadCounts[t];
+                        TileRenderer renderer = renderers[t];
+                        for (boolean simd : kernels) {
+                            double[] pixelRates = new double[measure];
+                            double iterRate = 0;
+                            for (int run = -warmup; run < measure; run++) {
+                                RenderStats stats = new RenderStats();
+                                FrameKernel.Factory factory = kernelFactory(viewport.centerX, viewport.centerY,
+                                        viewport.span / size, size, size, maxIter, simd);
+                                int[] counts = new int[size * size];
+                                Arrays.fill(counts, -1);
+                                long start = System.nanoTime();
+                                try {
+                                    renderer.render(factory, size, size, counts, new int[size * size],
+                                            new Palette(buildPalette(maxIter, 0f)), false, stats, (x, y, w, h) -> { }, null).get();
+                                } catch (ExecutionException e) {
+                                    throw new IllegalStateException("Benchmark render failed", e.getCause());
+                                }
+                                double seconds = (System.nanoTime() - start) / 1e9;
+                                if (run >= 0) {
+                                    pixelRates[run] = (double) size * size / seconds;
+                                    iterRate += (stats.iterations.sum() + stats.cardioidSaved.sum()
+                                            + stats.periodicitySaved.sum()) / seconds / measure;
+                                }
+                            }
+                            double mean = Arrays.stream(pixelRates).average().orElse(0);
+                            double variance = Arrays.stream(pixelRates).map(r -> (r - mean) * (r - mean)).sum() / measure;
+                            double errorPct = mean == 0 ? 0 : 100 * Math.sqrt(variance) / mean;
+                            String kernel = simd ? "simd" : "scalar";
+                            System.out.printf("%-10s %8d %7d %-8s %8.2f +-%4.1f%% %14.3f%n", viewport.name, maxIter, threads,
+                                    kernel, mean / 1e6, errorPct, iterRate / 1e9);
+                            rows.add(String.format("%s,%d,%d,%s,%.4f,%.2f,%.5f", viewport.name, maxIter, threads, kernel,
+                                    mean / 1e6, errorPct, iterRate / 1e9));
+                        }
+                    }
+                }
+            }
+        } finally {
+            for (TileRenderer renderer : renderers) {
+                renderer.shutdown();
+            }
+        }
+        if (csv != null) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(csv))) {
+                rows.forEach(out::println);
+            }
+        }
+        if (baseline != null && !compareToBaseline(baseline, rows, tolerance)) {
+            System.exit(1);
+        }
+    }
+
+    // Prints every case whose pixels/s fell more than `tolerance` percent below the baseline CSV
+    private static boolean compareToBaseline(Path baseline, List<String> rows, double tolerance) throws IOException {
+        Map<String, Double> previous = new HashMap<>();
+        List<String> lines = Files.readAllLines(baseline);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] f = line.split(",");
+            previous.put(f[0] + "," + f[1] + "," + f[2] + "," + f[3], Double.parseDouble(f[4]));
+        }
+        boolean ok = true;
+        for (String line : rows.subList(1, rows.size())) {
+            String[] f = line.split(",");
+            Double before = previous.get(f[0] + "," + f[1] + "," + f[2] + "," + f[3]);
+            double now = Double.parseDouble(f[4]);
+            if (before != null && now < before * (1 - tolerance / 100)) {
+                System.out.printf("REGRESSION %s/%s/%s/%s: %.2f -> %.2f Mpixels/s%n", f[0], f[1], f[2], f[3], before, now);
+                ok = false;
+            }
+        }
+        System.out.println(ok ? "No regressions against " + baseline : "Regressions against " + baseline);
+        return ok;
+    }
+
+    private static int[] parseIntList(String value) {
+        return Arrays.stream(value.split(",")).mapToInt(v -> Integer.parseInt(v.trim())).toArray();
+    }
+
+    // Command-line entry point for --export; everything else stays on the Swing path
+    private static void runExport(String[] args) throws IOException, InterruptedException {
+        Path output = null;
+        int width = WIDTH;
+        int height = HEIGHT;
+        BigDecimal cx = DEFAULT_CENTER_X;
+        BigDecimal cy = DEFAULT_CENTER_Y;
+        double zoom = Double.NaN;
+        int maxIter = 0;
+        int bandRows = 16;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean simd = false;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--simd")) {
+                simd = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--export":
+                    output = Paths.get(value);
+                    break;
+                case "--size": {
+                    String[] parts = value.toLowerCase().split("x");
+                    if (parts.length != 2) throw new IllegalArgumentException("Size must look like 8000x6000");
+                    width = Integer.parseInt(parts[0]);
+                    height = Integer.parseInt(parts[1]);
+                    break;
+                }
+                case "--center": {
+                    String[] parts = value.split(",");
+                    if (parts.length != 2) throw new IllegalArgumentException("Center must look like -0.75,0.1");
+                    cx = new BigDecimal(parts[0].trim());
+                    cy = new BigDecimal(parts[1].trim());
+                    break;
+                }
+                case "--zoom":
+                    zoom = Double.parseDouble(value);
+                    break;
+                case "--max-iter":
+                    maxIter = Integer.parseInt(value);
+                    break;
+                case "--band":
+                    bandRows = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (output == null || width <= 0 || height <= 0 || bandRows <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("Export needs an output file and positive sizes");
+        }
+        if ((long) width * 3 * bandRows > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Band too large; lower --band");
+        }
+        if (Double.isNaN(zoom)) {
+            zoom = DEFAULT_ZOOM * WIDTH / width; // same framing as the window
+        }
+        if (maxIter <= 0) {
+            maxIter = iterationLimit(zoom);
+        }
+
+        RenderStats stats = new RenderStats();
+        FrameKernel kernel = kernelFactory(cx, cy, zoom, width, height, maxIter, simd).create();
+        BandExporter exporter = new BandExporter(kernel, width, height, bandRows, buildPalette(maxIter, 0f), stats);
+        boolean png = output.getFileName().toString().toLowerCase().endsWith(".png");
+
+        System.out.printf("Rendering %,d x %,d to %s (%s, %d threads)%n", width, height, output, png ? "PNG" : "raw RGB", threads);
+        long start = System.nanoTime();
+        try (BandWriter writer = png ? new PngWriter(output, width, height) : new RawRgbWriter(output, width, height)) {
+            exporter.export(writer, threads);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Done in %.1f s (%.1f Mpixels/s)%n", seconds, (double) width * height / seconds / 1e6);
+        System.out.println(stats.summary());
     }
 
     public static void main(String[] args) {
+        if (args.length > 0) {
+            if (args[0].equals("--help")) {
+                printUsage();
+                return;
+            }
+            try {
+                if (args[0].equals("--bench")) {
+                    runBenchmark(args);
+                } else {
+                    runExport(args);
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                printUsage();
+                System.exit(1);
+            } catch (IOException | InterruptedException e) {
+                System.out.println("Failed: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
         SwingUtilities.invokeLater(MandelbrotSetVisualizer::new);
     }
 }
@@ -1,6 +1,28 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 
 public class MiniBlockchain {
     public static class Block {
@@ -17,46 +39,774 @@ public class MiniBlockchain {
             this.hash = calculateHash();
         }
 
+        // A block read back from storage, already mined
+        private Block(String data, String previousHash, long timeStamp, int nonce, String hash) {
+            this.data = data;
+            this.previousHash = previousHash;
+            this.timeStamp = timeStamp;
+            this.nonce = nonce;
+            this.hash = hash;
+        }
+
         public String calculateHash() {
+            return calculateHash(timeStamp, nonce);
+        }
+
+        // Hash this block would have with the given timestamp and nonce; leaves the block unchanged
+        String calculateHash(long timeStamp, int nonce) {
+            BlockHasher hasher = hasher();
+            hasher.setTimeStamp(timeStamp);
+            hasher.hash(nonce);
+            return hasher.hex();
+        }
+
+        /*
+         * The 64 bytes of header that mining never changes: the previous hash and a
+         * SHA-256 of the data. Hex hashes shorter than 64 digits (the genesis "0") are
+         * zero-extended on the left.
+         */
+        BlockHasher hasher() {
+            byte[] prefix = new byte[64];
+            String hex = previousHash;
+            if (hex.length() > 64) {
+                throw new IllegalStateException("Previous hash is longer than 256 bits: " + hex);
+            }
+            for (int i = 0; i < hex.length(); i++) {
+                int digit = Character.digit(hex.charAt(hex.length() - 1 - i), 16);
+                if (digit < 0) {
+                    throw new IllegalStateException("Previous hash is not hex: " + hex);
+                }
+                prefix[31 - i / 2] |= (byte) (i % 2 == 0 ? digit : digit << 4);
+            }
             try {
-                String input = previousHash + Long.toString(timeStamp) + Integer.toString(nonce) + data;
-                MessageDigest digest = MessageDigest.getInstance("SHA-256");
-                byte[] hashBytes = digest.digest(input.getBytes("UTF-8"));
-                StringBuffer hexString = new StringBuffer();
-                for (byte b : hashBytes) {
-                    String hex = Integer.toHexString(0xff & b);
-                    if (hex.length() == 1) hexString.append('0');
-                    hexString.append(hex);
-                }
-                return hexString.toString();
-            } catch (Exception e) {
+                byte[] dataHash = MessageDigest.getInstance("SHA-256").digest(data.getBytes(StandardCharsets.UTF_8));
+                System.arraycopy(dataHash, 0, prefix, 32, 32);
+            } catch (NoSuchAlgorithmException e) {
                 throw new RuntimeException(e);
             }
+            return new BlockHasher(prefix);
         }
 
         public void mineBlock(int difficulty) {
-            String target = new String(new char[difficulty]).replace('\0', '0'); // String with difficulty * "0"
-            while (!hash.substring(0, difficulty).equals(target)) {
+            BlockHasher hasher = hasher();
+            hasher.setTimeStamp(timeStamp);
+            int bits = 4 * difficulty; // difficulty counts leading zero hex digits
+            hasher.hash(nonce);
+            while (hasher.leadingZeroBits() < bits) {
                 nonce++;
-                hash = calculateHash();
+                hasher.hash(nonce);
             }
+            hash = hasher.hex();
             System.out.println("Block mined: " + hash);
         }
     }
 
-    private List<Block> blockchain = new ArrayList<>();
+    /*
+     * SHA-256 of the 76-byte binary block header
+     *
+     *     previous hash (32) | SHA-256 of data (32) | timestamp (8) | nonce (4)
+     *
+     * with integers big-endian. The header is serialized once and mining only rewrites
+     * its last four bytes. One hasher per thread: hash() reuses the hasher's digest,
+     * header and output arrays and allocates nothing, and the result is tested as raw
+     * bytes (leadingZeroBits) until a solution needs its hex string.
+     *
+     * The constant first 64 bytes are exactly one compression block, so a hand-written
+     * SHA-256 could compress them once and pay one compression per nonce instead of
+     * two. MessageDigest gives no access to that midstate, but HotSpot compresses with
+     * the CPU's SHA instructions where present, and two of those still beat one in
+     * plain Java, so the digest is reused as is.
+     */
+    static final class BlockHasher {
+        private static final int TIMESTAMP_OFFSET = 64;
+        private static final int NONCE_OFFSET = 72;
+
+        private final MessageDigest digest;
+        private final byte[] header = new byte[76];
+        private final byte[] hash = new byte[32];
+
+        BlockHasher(byte[] prefix) {
+            System.arraycopy(prefix, 0, header, 0, 64);
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void setTimeStamp(long timeStamp) {
+            for (int i = 0; i < 8; i++) {
+                header[TIMESTAMP_OFFSET + i] = (byte) (timeStamp >>> (56 - 8 * i));
+            }
+        }
+
+        void hash(int nonce) {
+            header[NONCE_OFFSET] = (byte) (nonce >>> 24);
+            header[NONCE_OFFSET + 1] = (byte) (nonce >>> 16);
+            header[NONCE_OFFSET + 2] = (byte) (nonce >>> 8);
+            header[NONCE_OFFSET + 3] = (byte) nonce;
+            digest.update(header, 0, header.length);
+            try {
+                digest.digest(hash, 0, hash.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int leadingZeroBits() {
+            for (int i = 0; i < hash.length; i++) {
+                if (hash[i] != 0) {
+                    return 8 * i + Integer.numberOfLeadingZeros(hash[i] & 0xff) - 24;
+                }
+            }
+            return 8 * hash.length;
+        }
+
+        String hex() {
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        }
+    }
+
+    /*
+     * Proof-of-work search spread over worker threads. The search space is rounds of
+     * the whole 32-bit nonce range: round r hashes with the block's timestamp + r, and
+     * worker w owns the w-th slice of the nonces in every round. Workers never hash the
+     * same (timestamp, nonce) pair, and one that exhausts its slice moves on to the next
+     * round without waiting for the others. The first worker to meet the target
+     * publishes its solution; the rest see the stop flag within CHECK_INTERVAL hashes.
+     * cancel() is sticky: it stops the search in progress and makes every later mine()
+     * give up at once, until the owner calls reset().
+     */
+    public static class ParallelMiner {
+        private static final int CHECK_INTERVAL = 1 << 12;
+        private static final long NONCES = 1L << 32;
+
+        private final int threads;
+        private final long[] hashCounts;
+        private volatile boolean cancelled;
+        private long elapsedNanos;
+
+        public ParallelMiner(int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("Miner needs at least one thread");
+            }
+            this.threads = threads;
+            this.hashCounts = new long[threads];
+        }
+
+        /*
+         * Mines `block` in place: on success its timestamp, nonce and hash are those of
+         * the solution. Returns false, leaving the block as it was, if the miner was
+         * cancelled before or during the search.
+         */
+        public boolean mine(Block block, int difficulty) throws InterruptedException {
+            int bits = 4 * difficulty;
+            AtomicBoolean done = new AtomicBoolean(); // set by the winner, or on interrupt
+            long[] solution = new long[2]; // timestamp, nonce; written once by the winner
+            String[] solutionHash = new String[1];
+            long span = (NONCES + threads - 1) / threads;
+            long baseTimeStamp = block.timeStamp;
+            Arrays.fill(hashCounts, 0);
+
+            Thread[] workers = new Thread[threads];
+            for (int w = 0; w < threads; w++) {
+                int worker = w;
+                long first = w * span;
+                long last = Math.min(NONCES, first + span);
+                workers[w] = new Thread(() -> {
+                    BlockHasher hasher = block.hasher();
+                    long hashes = 0;
+                    search:
+                    for (long round = 0; ; round++) {
+                        long timeStamp = baseTimeStamp + round;
+                        hasher.setTimeStamp(timeStamp);
+                        for (long n = first; n < last; n++) {
+                            if ((hashes & (CHECK_INTERVAL - 1)) == 0 && (done.get() || cancelled)) {
+                                break search;
+                            }
+                            hasher.hash((int) n);
+                            hashes++;
+                            if (hasher.leadingZeroBits() >= bits) {
+                                if (done.compareAndSet(false, true)) {
+                                    solution[0] = timeStamp;
+                                    solution[1] = n;
+                                    solutionHash[0] = hasher.hex();
+                                }
+                                break search;
+                            }
+                        }
+                    }
+                    hashCounts[worker] = hashes;
+                }, "miner-" + w);
+                workers[w].setDaemon(true);
+            }
+
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            try {
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+            } catch (InterruptedException e) {
+                done.set(true);
+                throw e;
+            } finally {
+                elapsedNanos = System.nanoTime() - start;
+            }
+            if (solutionHash[0] == null) {
+                return false;
+            }
+            // join() makes the winner's writes visible here
+            block.timeStamp = solution[0];
+            block.nonce = (int) solution[1];
+            block.hash = solutionHash[0];
+            return true;
+        }
+
+        // Stops a mine() in progress and any started after it, from any thread
+        public void cancel() {
+            cancelled = true;
+        }
+
+        // Lets mine() run again after cancel()
+        public void reset() {
+            cancelled = false;
+        }
+
+        public int threads() {
+            return threads;
+        }
+
+        // Hash rates of the last mine() call, per worker and in total
+        public String report() {
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            StringBuilder report = new StringBuilder();
+            long total = 0;
+            for (int w = 0; w < threads; w++) {
+                total += hashCounts[w];
+                report.append(String.format("   miner-%d: %d hashes, %.0f hashes/s%n", w, hashCounts[w],
+                        hashCounts[w] / seconds));
+            }
+            report.append(String.format("   total: %d hashes in %.2f s, %.0f hashes/s", total, seconds, total / seconds));
+            return report.toString();
+        }
+    }
+
+    /*
+     * The chain on disk, as a List so MiniBlockchain uses it in place of its ArrayList.
+     * A directory holds
+     *
+     *     blocks-NNNNNN.log   append-only segments of block records; a record that would
+     *                         take a segment past its size limit starts the next one
+     *     height.idx          32-byte header, then the log position of each block by height
+     *     hash.idx            24-byte header, then an open-addressed table of
+     *                         (last 8 bytes of the block hash, height + 1) slots
+     *
+     * all little-endian. A record is its payload length, the payload's CRC-32 and the
+     * payload: raw hash (32), timestamp (8), nonce (4), previous hash as a length-
+     * prefixed ASCII string, then the data as UTF-8 to the end. A log position is the
+     * segment number in its high 32 bits and the offset within the segment below.
+     *
+     * Both indexes are memory-mapped, so opening a store reads two headers rather than
+     * the log. Appends are only guaranteed on disk after sync(), which add() runs every
+     * syncEvery blocks or once syncInterval has passed since the last one (checked at
+     * append time; there is no background flusher). sync() forces the log, then the
+     * indexes, and only then moves the durable count in the height header, so the
+     * header never covers a record that might not be there. Opening rescans the log
+     * from the durable end: complete records with a good CRC are indexed again and the
+     * first short or corrupt one is where the log is cut, with any later segments
+     * deleted. Losing height.idx therefore costs one full rescan, not the chain; a
+     * hash.idx that is missing or covers fewer blocks than height.idx is rebuilt from
+     * the records height.idx points at.
+     *
+     * A single mapping holds each index, which caps a store at about 67 million blocks.
+     * Like the ArrayList it replaces, a store is not thread-safe.
+     */
+    public static class BlockStore extends AbstractList<Block> implements Closeable {
+        private static final int HEIGHT_MAGIC = 0x494b4c42; // "BLKI" read little-endian
+        private static final int HASH_MAGIC = 0x484b4c42;   // "BLKH" read little-endian
+        private static final int VERSION = 1;
+        private static final int HEIGHT_HEADER_BYTES = 32;
+        private static final int HASH_HEADER_BYTES = 24;
+        private static final int RECORD_HEADER_BYTES = 8;
+        private static final int FIXED_PAYLOAD_BYTES = 32 + 8 + 4 + 1;
+        private static final int INITIAL_BLOCKS = 1 << 16;
+        static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+        private final Path directory;
+        private final long segmentBytes;
+        private final List<FileChannel> segments = new ArrayList<>();
+        private final FileChannel heightChannel;
+        private MappedByteBuffer heightMap;
+        private MappedByteBuffer hashMap;
+        private long hashCapacity; // slots, a power of two
+        private int count;
+        private int syncedCount;   // the durable count in the height header
+        private long endPosition;  // just past the last record
+        private int syncEvery = 1000;
+        private long syncIntervalNanos = 100_000_000L;
+        private int unsynced;
+        private long lastSync = System.nanoTime();
+        private ByteBuffer record = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private int recoveredBlocks;
+        private boolean rebuiltHashIndex;
+        private long truncatedBytes;
+
+        public static BlockStore open(Path directory) throws IOException {
+            return open(directory, DEFAULT_SEGMENT_BYTES);
+        }
+
+        // segmentBytes only applies to a new store; an existing one keeps its own
+        public static BlockStore open(Path directory, long segmentBytes) throws IOException {
+            if (segmentBytes < 1024 || segmentBytes > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Segment size must be between 1 KiB and 2 GiB");
+            }
+            return new BlockStore(directory, segmentBytes);
+        }
+
+        private BlockStore(Path directory, long segmentBytes) throws IOException {
+            Files.createDirectories(directory);
+            this.directory = directory;
+            heightChannel = FileChannel.open(directory.resolve("height.idx"), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean fresh = heightChannel.size() < HEIGHT_HEADER_BYTES;
+            heightMap = map(heightChannel, Math.max(heightChannel.size(), HEIGHT_HEADER_BYTES + 8L * INITIAL_BLOCKS));
+            if (fresh) {
+                heightMap.putInt(0, HEIGHT_MAGIC).putInt(4, VERSION).putLong(8, 0).putLong(16, 0).putLong(24, segmentBytes);
+            } else if (heightMap.getInt(0) != HEIGHT_MAGIC || heightMap.getInt(4) != VERSION) {
+                throw new IOException("Not a version " + VERSION + " block index: " + directory.resolve("height.idx"));
+            }
+            count = (int) heightMap.getLong(8);
+            syncedCount = count;
+            endPosition = heightMap.getLong(16);
+            this.segmentBytes = heightMap.getLong(24);
+            if (count < 0 || HEIGHT_HEADER_BYTES + 8L * count > heightMap.capacity()) {
+                throw new IOException("Corrupt block index: " + directory.resolve("height.idx"));
+            }
+            openSegments();
+            openHashIndex(fresh);
+            recover();
+        }
+
+        private static MappedByteBuffer map(FileChannel channel, long bytes) throws IOException {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            return map;
+        }
+
+        /*
+         * Maps hash.idx, which must cover every durable block. One that is missing or
+         * fell behind height.idx is rebuilt from the log; with a new height index there
+         * is nothing durable yet, and recover() indexes whatever the log holds.
+         */
+        private void openHashIndex(boolean fresh) throws IOException {
+            Path file = directory.resolve("hash.idx");
+            if (fresh) {
+                hashMap = createHashIndex(file, 2L * INITIAL_BLOCKS, null, 0);
+                return;
+            }
+            if (Files.exists(file)) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    MappedByteBuffer header = map(channel, HASH_HEADER_BYTES);
+                    long capacity = header.getLong(8);
+                    if (header.getInt(0) != HASH_MAGIC || header.getInt(4) != VERSION || Long.bitCount(capacity) != 1
+                            || channel.size() != HASH_HEADER_BYTES + 16 * capacity) {
+                        throw new IOException("Not a version " + VERSION + " hash index: " + file);
+                    }
+                    if (header.getLong(16) >= count) {
+                        hashCapacity = capacity;
+                        hashMap = map(channel, channel.size());
+                        return;
+                    }
+                }
+            }
+            rebuildHashIndex(file);
+        }
+
+        private void rebuildHashIndex(Path file) throws IOException {
+            long capacity = 2L * INITIAL_BLOCKS;
+            while (capacity < 2L * count) {
+                capacity *= 2;
+            }
+            hashMap = createHashIndex(file, capacity, null, 0);
+            for (int height = 0; height < count; height++) {
+                long position = heightMap.getLong(HEIGHT_HEADER_BYTES + 8 * height);
+                ByteBuffer payload = readRecord(segments.get((int) (position >>> 32)), position & 0xffffffffL);
+                if (payload == null) {
+                    throw new IOException("Corrupt block record at height " + height + " in " + directory);
+                }
+                insert(hashMap, hashCapacity, hashKey(payload, 0), height);
+            }
+            hashMap.putLong(16, count);
+            hashMap.force();
+            rebuiltHashIndex = true;
+        }
+
+        /*
+         * Writes a hash index of `capacity` slots next to `file`, filled with the live
+         * entries of `from` (heights below `limit`), and moves it into place. Its header
+         * records `limit` as the number of blocks it covers.
+         */
+        private MappedByteBuffer createHashIndex(Path file, long capacity, MappedByteBuffer from, int limit)
+                throws IOException {
+            long bytes = HASH_HEADER_BYTES + 16 * capacity;
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Hash index is full at " + count + " blocks");
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.deleteIfExists(temp);
+            MappedByteBuffer map;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                map = map(channel, bytes);
+            }
+            map.putInt(0, HASH_MAGIC).putInt(4, VERSION).putLong(8, capacity).putLong(16, limit);
+            for (long slot = 0; from != null && slot < hashCapacity; slot++) {
+                int at = (int) (HASH_HEADER_BYTES + 16 * slot);
+                long height = from.getLong(at + 8) - 1;
+                if (height >= 0 && height < limit) {
+                    insert(map, capacity, from.getLong(at), (int) height);
+                }
+            }
+            map.force();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            hashCapacity = capacity;
+            return map;
+        }
+
+        private void openSegments() throws IOException {
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "blocks-*.log")) {
+                stream.forEach(files::add);
+            }
+            files.sort(null);
+            for (int i = 0; i < files.size(); i++) {
+                if (!files.get(i).equals(segmentPath(i))) {
+                    throw new IOException("Missing block log segment " + segmentPath(i));
+                }
+                segments.add(FileChannel.open(files.get(i), StandardOpenOption.READ, StandardOpenOption.WRITE));
+            }
+            if (segments.isEmpty()) {
+                segments.add(FileChannel.open(segmentPath(0), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE));
+            }
+        }
+
+        private Path segmentPath(int segment) {
+            return directory.resolve(String.format("blocks-%06d.log", segment));
+        }
+
+        // Indexes whatever complete records follow the durable end and cuts the log after them
+        private void recover() throws IOException {
+            int segment = (int) (endPosition >>> 32);
+            long offset = endPosition & 0xffffffffL;
+            if (segment >= segments.size() || offset > segments.get(segment).size()) {
+                throw new IOException("Block log is shorter than its index: " + directory);
+            }
+            while (true) {
+                ByteBuffer payload = readRecord(segments.get(segment), offset);
+                if (payload == null) {
+                    if (offset == segments.get(segment).size() && segment + 1 < segments.size()) {
+                        segment++;
+                        offset = 0;
+                        continue;
+                    }
+                    break;
+                }
+                index(count, segment, offset, hashKey(payload, 0));
+                count++;
+                recoveredBlocks++;
+                offset += RECORD_HEADER_BYTES + payload.limit();
+            }
+            FileChannel last = segments.get(segment);
+            truncatedBytes = last.size() - offset;
+            last.truncate(offset);
+            while (segments.size() > segment + 1) {
+                int extra = segments.size() - 1;
+                truncatedBytes += segments.remove(extra).size();
+                Files.delete(segmentPath(extra));
+            }
+            endPosition = (long) segment << 32 | offset;
+            if (recoveredBlocks > 0 || truncatedBytes > 0) {
+                sync();
+            }
+        }
+
+        /*
+         * The payload of the record at `offset` (positioned at 0, limited to its
+         * length), or null if there is no complete record with a matching CRC there.
+         */
+        private ByteBuffer readRecord(FileChannel channel, long offset) throws IOException {
+            long available = channel.size() - offset;
+            if (available < RECORD_HEADER_BYTES) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, offset);
+            int length = header.getInt(0);
+            if (length < FIXED_PAYLOAD_BYTES || length > available - RECORD_HEADER_BYTES) {
+                return null;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, payload, offset + RECORD_HEADER_BYTES);
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            return (int) crc.getValue() == header.getInt(4) ? payload.clear() : null;
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of block log");
+                }
+            }
+        }
+
+        // Sets how many appends, or how long, may go by before add() syncs
+        public void setSyncPolicy(int everyBlocks, long intervalMillis) {
+            if (everyBlocks <= 0 || intervalMillis < 0) {
+                throw new IllegalArgumentException("Sync policy needs a positive block count");
+            }
+            syncEvery = everyBlocks;
+            syncIntervalNanos = intervalMillis * 1_000_000L;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public Block get(int height) {
+            Objects.checkIndex(height, count);
+            long position = heightMap.getLong(HEIGHT_HEADER_BYTES + 8 * height);
+            try {
+                ByteBuffer payload = readRecord(segments.get((int) (position >>> 32)), position & 0xffffffffL);
+                if (payload == null) {
+                    throw new IOException("Corrupt block record at height " + height + " in " + directory);
+                }
+                byte[] bytes = payload.array();
+                int previousLength = bytes[44] & 0xff;
+                String previousHash = new String(bytes, 45, previousLength, StandardCharsets.US_ASCII);
+                int dataStart = 45 + previousLength;
+                String data = new String(bytes, dataStart, bytes.length - dataStart, StandardCharsets.UTF_8);
+                return new Block(data, previousHash, payload.getLong(32), payload.getInt(40), toHex(bytes, 0, 32));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean add(Block block) {
+            try {
+                append(block);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        }
+
+        public void append(Block block) throws IOException {
+            byte[] hash = parseHash(block.hash);
+            byte[] previous = block.previousHash.getBytes(StandardCharsets.US_ASCII);
+            byte[] data = block.data.getBytes(StandardCharsets.UTF_8);
+            if (previous.length > 255) {
+                throw new IllegalArgumentException("Previous hash is too long to store: " + block.previousHash);
+            }
+            int length = FIXED_PAYLOAD_BYTES + previous.length + data.length;
+            long recordBytes = RECORD_HEADER_BYTES + (long) length;
+            if (recordBytes > segmentBytes) {
+                throw new IllegalArgumentException("A " + recordBytes + "-byte block does not fit in a segment");
+            }
+            if (record.capacity() < recordBytes) {
+                record = ByteBuffer.allocate((int) recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            record.clear();
+            record.putInt(length).putInt(0).put(hash).putLong(block.timeStamp).putInt(block.nonce)
+                    .put((byte) previous.length).put(previous).put(data);
+            crc.reset();
+            crc.update(record.array(), RECORD_HEADER_BYTES, length);
+            record.putInt(4, (int) crc.getValue()).flip();
+
+            int segment = (int) (endPosition >>> 32);
+            long offset = endPosition & 0xffffffffL;
+            if (offset > 0 && offset + recordBytes > segmentBytes) {
+                segments.get(segment).force(false);
+                segment++;
+                offset = 0;
+                segments.add(FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE));
+            }
+            FileChannel channel = segments.get(segment);
+            while (record.hasRemaining()) {
+                channel.write(record, offset + record.position());
+            }
+            index(count, segment, offset, hashKey(record, RECORD_HEADER_BYTES));
+            count++;
+            endPosition = (long) segment << 32 | (offset + recordBytes);
+            if (++unsynced >= syncEvery || System.nanoTime() - lastSync >= syncIntervalNanos) {
+                sync();
+            }
+        }
+
+        private void index(int height, int segment, long offset, long hashKey) throws IOException {
+            long needed = HEIGHT_HEADER_BYTES + 8L * (height + 1);
+            if (needed > heightMap.capacity()) {
+                long bytes = Math.max(needed, 2L * heightMap.capacity() - HEIGHT_HEADER_BYTES);
+                if (bytes > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("Height index is full at " + height + " blocks");
+                }
+                heightMap = map(heightChannel, bytes);
+            }
+            heightMap.putLong(HEIGHT_HEADER_BYTES + 8 * height, (long) segment << 32 | offset);
+            if (2L * (height + 1) > hashCapacity) {
+                hashMap = createHashIndex(directory.resolve("hash.idx"), 2 * hashCapacity, hashMap, height);
+            }
+            insert(hashMap, hashCapacity, hashKey, height);
+        }
+
+        // Slots left behind by a truncated tail point past the chain or at another block; both are skipped on lookup
+        private static void insert(ByteBuffer map, long capacity, long key, int height) {
+            for (long slot = key & (capacity - 1); ; slot = (slot + 1) & (capacity - 1)) {
+                int at = (int) (HASH_HEADER_BYTES + 16 * slot);
+                long stored = map.getLong(at + 8);
+                if (stored == 0) {
+                    map.putLong(at, key).putLong(at + 8, height + 1L);
+                    return;
+                }
+                if (stored == height + 1L && map.getLong(at) == key) {
+                    return;
+                }
+            }
+        }
+
+        // Last 8 bytes of the raw hash at `offset`, big-endian like the hex digits they come from
+        private static long hashKey(ByteBuffer buffer, int offset) {
+            return Long.reverseBytes(buffer.getLong(offset + 24));
+        }
+
+        // Height of the block with this hash, or -1
+        public int heightOf(String hash) {
+            if (hash.length() != 64) {
+                return -1;
+            }
+            long key;
+            try {
+                key = Long.parseUnsignedLong(hash.substring(48), 16);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+            for (long slot = key & (hashCapacity - 1); ; slot = (slot + 1) & (hashCapacity - 1)) {
+                int at = (int) (HASH_HEADER_BYTES + 16 * slot);
+                long height = hashMap.getLong(at + 8) - 1;
+                if (height < 0) {
+                    return -1;
+                }
+                if (hashMap.getLong(at) == key && height < count && get((int) height).hash.equals(hash)) {
+                    return (int) height;
+                }
+            }
+        }
+
+        public void sync() throws IOException {
+            segments.get((int) (endPosition >>> 32)).force(false);
+            hashMap.putLong(16, count);
+            hashMap.force();
+            heightMap.force(HEIGHT_HEADER_BYTES + 8 * syncedCount, 8 * (count - syncedCount));
+            heightMap.putLong(8, count).putLong(16, endPosition);
+            heightMap.force(0, HEIGHT_HEADER_BYTES);
+            syncedCount = count;
+            unsynced = 0;
+            lastSync = System.nanoTime();
+        }
+
+        public int segmentCount() {
+            return segments.size();
+        }
+
+        // Blocks found past the durable end and indexed again when the store was opened
+        public int recoveredBlocks() {
+            return recoveredBlocks;
+        }
+
+        // Whether opening had to rebuild hash.idx from the log
+        public boolean rebuiltHashIndex() {
+            return rebuiltHashIndex;
+        }
+
+        // Bytes of torn or corrupt tail cut from the log when the store was opened
+        public long truncatedBytes() {
+            return truncatedBytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            sync();
+            for (FileChannel segment : segments) {
+                segment.close();
+            }
+            heightChannel.close();
+        }
+
+        private static byte[] parseHash(String hex) {
+            if (hex.length() != 64) {
+                throw new IllegalArgumentException("Not a 256-bit hex hash: " + hex);
+            }
+            byte[] bytes = new byte[32];
+            for (int i = 0; i < 32; i++) {
+                int high = Character.digit(hex.charAt(2 * i), 16);
+                int low = Character.digit(hex.charAt(2 * i + 1), 16);
+                if (high < 0 || low < 0) {
+                    throw new IllegalArgumentException("Not a 256-bit hex hash: " + hex);
+                }
+                bytes[i] = (byte) (high << 4 | low);
+            }
+            return bytes;
+        }
+
+        private static String toHex(byte[] bytes, int offset, int length) {
+            StringBuilder hex = new StringBuilder(2 * length);
+            for (int i = offset; i < offset + length; i++) {
+                hex.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16)).append(Character.forDigit(bytes[i] & 0xf, 16));
+            }
+            return hex.toString();
+        }
+    }
+
+    private final List<Block> blockchain;
     private int difficulty;
+    private final ParallelMiner miner;
 
     public MiniBlockchain(int difficulty) {
+        this(difficulty, Runtime.getRuntime().availableProcessors());
+    }
+
+    public MiniBlockchain(int difficulty, int threads) {
+        this(difficulty, threads, new ArrayList<>());
+    }
+
+    // Builds on `chain`, which may already hold blocks (a reopened BlockStore); an empty one gets a genesis block
+    public MiniBlockchain(int difficulty, int threads, List<Block> chain) {
         this.difficulty = difficulty;
-        // Add genesis block
-        blockchain.add(createGenesisBlock());
+        this.miner = new ParallelMiner(threads);
+        this.blockchain = chain;
+        if (blockchain.isEmpty()) {
+            // Add genesis block
+            blockchain.add(createGenesisBlock());
+        }
     }
 
     private Block createGenesisBlock() {
         System.out.println("Creating genesis block...");
         Block genesis = new Block("Genesis Block", "0");
-        genesis.mineBlock(difficulty);
+        mine(genesis);
         return genesis;
     }
 
@@ -64,10 +814,32 @@ public class MiniBlockchain {
         Block previousBlock = blockchain.get(blockchain.size() - 1);
         Block newBlock = new Block(data, previousBlock.hash);
         System.out.println("Mining new block...");
-        newBlock.mineBlock(difficulty);
+        mine(newBlock);
         blockchain.add(newBlock);
     }
 
+    private void mine(Block block) {
+        try {
+            if (!miner.mine(block, difficulty)) {
+                throw new IllegalStateException("Mining was cancelled");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while mining", e);
+        }
+        System.out.println("Block mined: " + block.hash);
+        System.out.println(miner.report());
+    }
+
+    // Stops the block currently being mined; addBlock fails with IllegalStateException until resumeMining()
+    public void cancelMining() {
+        miner.cancel();
+    }
+
+    public void resumeMining() {
+        miner.reset();
+    }
+
     public boolean isChainValid() {
         for (int i = 1; i < blockchain.size(); i++) {
             Block current = blockchain.get(i);
@@ -98,15 +870,203 @@ public class MiniBlockchain {
         }
     }
 
-    public static void main(String[] args) {
-        MiniBlockchain miniChain = new MiniBlockchain(4);  // Difficulty level
+    public int height() {
+        return blockchain.size() - 1;
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: java main.java [options] | --bench-store DIR [options]");
+        System.out.println("  --difficulty N      leading zero hex digits a block hash needs (default 4)");
+        System.out.println("  --threads N         mining threads (default all cores)");
+        System.out.println("  --blocks N          blocks to mine after the genesis block (default 3)");
+        System.out.println("  --store DIR         keep the chain in a block store, continuing any chain in it");
+        System.out.println("Store benchmark options:");
+        System.out.println("  --blocks N          unmined blocks to append (default 1000000)");
+        System.out.println("  --sync-every N      appends per fsync (default 1000)");
+        System.out.println("  --segment-mb N      log segment size for a new store (default 64)");
+        System.out.println("  --lookups N         random reads by height and by hash (default 100000)");
+    }
 
-        miniChain.addBlock("First block data");
-        miniChain.addBlock("Second block data");
-        miniChain.addBlock("Third block data");
+    private static void runChain(String[] args) throws IOException {
+        int difficulty = 4;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int blocks = 3;
+        Path storeDir = null;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--difficulty":
+                    difficulty = parsePositive(option, value);
+                    break;
+                case "--threads":
+                    threads = parsePositive(option, value);
+                    break;
+                case "--blocks":
+                    blocks = Integer.parseInt(value);
+                    break;
+                case "--store":
+                    storeDir = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (blocks < 0) {
+            throw new IllegalArgumentException("--blocks must not be negative");
+        }
 
-        miniChain.printBlockchain();
+        if (storeDir == null) {
+            MiniBlockchain miniChain = new MiniBlockchain(difficulty, threads);
+            for (int b = 1; b <= blocks; b++) {
+                miniChain.addBlock("Block " + b + " data");
+            }
+            miniChain.printBlockchain();
+            System.out.println("Blockchain valid? " + miniChain.isChainValid());
+            return;
+        }
 
-        System.out.println("Blockchain valid? " + miniChain.isChainValid());
+        long start = System.nanoTime();
+        try (BlockStore store = BlockStore.open(storeDir)) {
+            System.out.printf("Opened %s in %.1f ms: %d blocks in %d segments%n", storeDir,
+                    (System.nanoTime() - start) / 1e6, store.size(), store.segmentCount());
+            if (store.recoveredBlocks() > 0 || store.truncatedBytes() > 0) {
+                System.out.printf("Recovered %d blocks after the last sync, cut %d bytes of torn tail%n",
+                        store.recoveredBlocks(), store.truncatedBytes());
+            }
+            MiniBlockchain miniChain = new MiniBlockchain(difficulty, threads, store);
+            for (int b = 0; b < blocks; b++) {
+                miniChain.addBlock("Block " + (miniChain.height() + 1) + " data");
+            }
+            if (store.size() <= 20) {
+                miniChain.printBlockchain();
+            } else {
+                System.out.println("Blockchain: " + store.size() + " blocks, tip " + store.get(store.size() - 1).hash);
+            }
+            System.out.println("Blockchain valid? " + miniChain.isChainValid());
+        }
+    }
+
+    /*
+     * Appends unmined blocks (valid hashes and links, no proof of work) to a store,
+     * then reopens it and reads random blocks back by height and by hash.
+     */
+    private static void runStoreBenchmark(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Missing value for --bench-store");
+        }
+        Path dir = Paths.get(args[1]);
+        int blocks = 1_000_000;
+        int syncEvery = 1000;
+        long segmentBytes = BlockStore.DEFAULT_SEGMENT_BYTES;
+        int lookups = 100_000;
+        for (int i = 2; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--blocks":
+                    blocks = parsePositive(option, value);
+                    break;
+                case "--sync-every":
+                    syncEvery = parsePositive(option, value);
+                    break;
+                case "--segment-mb":
+                    segmentBytes = (long) parsePositive(option, value) << 20;
+                    break;
+                case "--lookups":
+                    lookups = parsePositive(option, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+
+        long start = System.nanoTime();
+        try (BlockStore store = BlockStore.open(dir, segmentBytes)) {
+            store.setSyncPolicy(syncEvery, Long.MAX_VALUE / 1_000_000L);
+            int first = store.size();
+            String previous = first == 0 ? "0" : store.get(first - 1).hash;
+            for (int b = 0; b < blocks; b++) {
+                Block block = new Block("Benchmark block " + (first + b), previous);
+                store.add(block);
+                previous = block.hash;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Appended %d blocks in %.2f s: %.0f blocks/s, fsync every %d%n",
+                    blocks, seconds, blocks / seconds, syncEvery);
+        }
+
+        start = System.nanoTime();
+        try (BlockStore store = BlockStore.open(dir)) {
+            System.out.printf("Reopened %d blocks in %d segments in %.1f ms%n", store.size(), store.segmentCount(),
+                    (System.nanoTime() - start) / 1e6);
+            Random random = new Random(1);
+            String[] hashes = new String[lookups];
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                hashes[i] = store.get(random.nextInt(store.size())).hash;
+            }
+            double byHeight = (System.nanoTime() - start) / 1e3 / lookups;
+            start = System.nanoTime();
+            for (String hash : hashes) {
+                if (store.heightOf(hash) < 0) {
+                    throw new IllegalStateException("Hash index lost block " + hash);
+                }
+            }
+            double byHash = (System.nanoTime() - start) / 1e3 / lookups;
+            System.out.printf("Random reads: %.2f us by height, %.2f us by hash%n", byHeight, byHash);
+        }
+
+        // A store that lost its hash index must rebuild it, not reopen with an empty one
+        Files.delete(dir.resolve("hash.idx"));
+        start = System.nanoTime();
+        try (BlockStore store = BlockStore.open(dir)) {
+            if (!store.rebuiltHashIndex()) {
+                throw new IllegalStateException("Hash index was not rebuilt");
+            }
+            System.out.printf("Rebuilt the hash index of %d blocks in %.1f ms%n", store.size(),
+                    (System.nanoTime() - start) / 1e6);
+            for (int height = 0; height < store.size(); height++) {
+                String hash = store.get(height).hash;
+                if (store.heightOf(hash) != height) {
+                    throw new IllegalStateException("Rebuilt hash index lost block " + hash);
+                }
+            }
+        }
+    }
+
+    private static int parsePositive(String option, String value) {
+        int parsed = Integer.parseInt(value);
+        if (parsed <= 0) {
+            throw new IllegalArgumentException(option + " must be positive");
+        }
+        return parsed;
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--help")) {
+            printUsage();
+            return;
+        }
+        try {
+            if (args.length > 0 && args[0].equals("--bench-store")) {
+                runStoreBenchmark(args);
+            } else {
+                runChain(args);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            printUsage();
+            System.exit(1);
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Failed: " + e.getMessage());
+            System.exit(1);
+        }
     }
 }
@@ -0,0 +1,297 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * SIMD kernels for NeuralNetworkSimulator's float32 backend and int8 inference, kept
+ * in their own file because jdk.incubator.vector has to be resolved when they are
+ * compiled. main.java looks this class up reflectively and falls back to plain
+ * loops when it is missing.
+ *
+ *     javac --add-modules jdk.incubator.vector NeuralNetworkVectorKernel.java
+ *     java --add-modules jdk.incubator.vector main.java --check-float
+ *
+ * All matrices are row-major and every product accumulates into C, as in main.java's
+ * Matrix class.
+ */
+public class NeuralNetworkVectorKernel {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int L = SPECIES.length();
+    private static final int K_BLOCK = 256;
+    private static final int N_BLOCK = 256;
+    private static final int ROW_BLOCK = 64;
+
+    /*
+     * Species for dotInt8, in a holder so that nothing here can stop the float kernels
+     * from loading. A byte vector a quarter the width of an int vector widens into one
+     * int vector, but bytes come no narrower than 64 bits, so with 128-bit ints (SSE,
+     * NEON, -XX:MaxVectorSize=16) each byte vector widens into PARTS int vectors.
+     */
+    private static final class Int8 {
+        static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+        static final VectorSpecies<Byte> BYTE_SPECIES = VectorSpecies.of(byte.class,
+                VectorShape.forBitSize(Math.max(64, INT_SPECIES.vectorBitSize() / 4)));
+        static final int PARTS = BYTE_SPECIES.length() / INT_SPECIES.length();
+    }
+
+    public static int lanes() {
+        return L;
+    }
+
+    // C (m x n) += A (m x k) * B (k x n)
+    public static void multiply(float[] a, float[] b, float[] c, int m, int k, int n) {
+        gemm(a, k, 1, b, c, m, k, n);
+    }
+
+    // C (m x n) += A^T * B, with A stored k x m and B stored k x n
+    public static void multiplyTransposeA(float[] a, float[] b, float[] c, int m, int k, int n) {
+        gemm(a, 1, m, b, c, m, k, n);
+    }
+
+    /*
+     * C += A * B where element (i, p) of A is a[i * ai + p * ap]. Works on K_BLOCK x
+     * N_BLOCK panels of B (256 KB, so a panel stays in L2) and keeps a 4-row by
+     * two-vector tile of C in registers for the whole panel depth: each B vector
+     * loaded feeds four fused multiply-adds.
+     */
+    private static void gemm(float[] a, int ai, int ap, float[] b, float[] c, int m, int k, int n) {
+        for (int p0 = 0; p0 < k; p0 += K_BLOCK) {
+            int p1 = Math.min(k, p0 + K_BLOCK);
+            for (int j0 = 0; j0 < n; j0 += N_BLOCK) {
+                int j1 = Math.min(n, j0 + N_BLOCK);
+                int i = 0;
+                for (; i + 3 < m; i += 4) {
+                    tile4(a, ai, ap, i, b, c, n, p0, p1, j0, j1);
+                }
+                for (; i < m; i++) {
+                    tile1(a, ai, ap, i, b, c, n, p0, p1, j0, j1);
+                }
+            }
+        }
+    }
+
+    private static void tile4(float[] a, int ai, int ap, int i, float[] b, float[] c, int n,
+                              int p0, int p1, int j0, int j1) {
+        int a0 = i * ai;
+        int a1 = a0 + ai;
+        int a2 = a1 + ai;
+        int a3 = a2 + ai;
+        int c0 = i * n;
+        int c1 = c0 + n;
+        int c2 = c1 + n;
+        int c3 = c2 + n;
+        int j = j0;
+        for (; j + 2 * L <= j1; j += 2 * L) {
+            FloatVector s00 = FloatVector.fromArray(SPECIES, c, c0 + j);
+            FloatVector s01 = FloatVector.fromArray(SPECIES, c, c0 + j + L);
+            FloatVector s10 = FloatVector.fromArray(SPECIES, c, c1 + j);
+            FloatVector s11 = FloatVector.fromArray(SPECIES, c, c1 + j + L);
+            FloatVector s20 = FloatVector.fromArray(SPECIES, c, c2 + j);
+            FloatVector s21 = FloatVector.fromArray(SPECIES, c, c2 + j + L);
+            FloatVector s30 = FloatVector.fromArray(SPECIES, c, c3 + j);
+            FloatVector s31 = FloatVector.fromArray(SPECIES, c, c3 + j + L);
+            for (int p = p0; p < p1; p++) {
+                FloatVector b0 = FloatVector.fromArray(SPECIES, b, p * n + j);
+                FloatVector b1 = FloatVector.fromArray(SPECIES, b, p * n + j + L);
+                int ao = p * ap;
+                FloatVector x0 = FloatVector.broadcast(SPECIES, a[a0 + ao]);
+                FloatVector x1 = FloatVector.broadcast(SPECIES, a[a1 + ao]);
+                FloatVector x2 = FloatVector.broadcast(SPECIES, a[a2 + ao]);
+                FloatVector x3 = FloatVector.broadcast(SPECIES, a[a3 + ao]);
+                s00 = b0.fma(x0, s00);
+                s01 = b1.fma(x0, s01);
+                s10 = b0.fma(x1, s10);
+                s11 = b1.fma(x1, s11);
+                s20 = b0.fma(x2, s20);
+                s21 = b1.fma(x2, s21);
+                s30 = b0.fma(x3, s30);
+                s31 = b1.fma(x3, s31);
+            }
+            s00.intoArray(c, c0 + j);
+            s01.intoArray(c, c0 + j + L);
+            s10.intoArray(c, c1 + j);
+            s11.intoArray(c, c1 + j + L);
+            s20.intoArray(c, c2 + j);
+            s21.intoArray(c, c2 + j + L);
+            s30.intoArray(c, c3 + j);
+            s31.intoArray(c, c3 + j + L);
+        }
+        for (; j + L <= j1; j += L) {
+            FloatVector s0 = FloatVector.fromArray(SPECIES, c, c0 + j);
+            FloatVector s1 = FloatVector.fromArray(SPECIES, c, c1 + j);
+            FloatVector s2 = FloatVector.fromArray(SPECIES, c, c2 + j);
+            FloatVector s3 = FloatVector.fromArray(SPECIES, c, c3 + j);
+            for (int p = p0; p < p1; p++) {
+                FloatVector bv = FloatVector.fromArray(SPECIES, b, p * n + j);
+                int ao = p * ap;
+                s0 = bv.fma(FloatVector.broadcast(SPECIES, a[a0 + ao]), s0);
+                s1 = bv.fma(FloatVector.broadcast(SPECIES, a[a1 + ao]), s1);
+                s2 = bv.fma(FloatVector.broadcast(SPECIES, a[a2 + ao]), s2);
+                s3 = bv.fma(FloatVector.broadcast(SPECIES, a[a3 + ao]), s3);
+            }
+            s0.intoArray(c, c0 + j);
+            s1.intoArray(c, c1 + j);
+            s2.intoArray(c, c2 + j);
+            s3.intoArray(c, c3 + j);
+        }
+        for (; j < j1; j++) {
+            float s0 = c[c0 + j], s1 = c[c1 + j], s2 = c[c2 + j], s3 = c[c3 + j];
+            for (int p = p0; p < p1; p++) {
+                float bj = b[p * n + j];
+                int ao = p * ap;
+                s0 += a[a0 + ao] * bj;
+                s1 += a[a1 + ao] * bj;
+                s2 += a[a2 + ao] * bj;
+                s3 += a[a3 + ao] * bj;
+            }
+            c[c0 + j] = s0;
+            c[c1 + j] = s1;
+            c[c2 + j] = s2;
+            c[c3 + j] = s3;
+        }
+    }
+
+    private static void tile1(float[] a, int ai, int ap, int i, float[] b, float[] c, int n,
+                              int p0, int p1, int j0, int j1) {
+        int a0 = i * ai;
+        int c0 = i * n;
+        int j = j0;
+        for (; j + L <= j1; j += L) {
+            FloatVector s = FloatVector.fromArray(SPECIES, c, c0 + j);
+            for (int p = p0; p < p1; p++) {
+                s = FloatVector.fromArray(SPECIES, b, p * n + j).fma(FloatVector.broadcast(SPECIES, a[a0 + p * ap]), s);
+            }
+            s.intoArray(c, c0 + j);
+        }
+        for (; j < j1; j++) {
+            float s = c[c0 + j];
+            for (int p = p0; p < p1; p++) {
+                s += a[a0 + p * ap] * b[p * n + j];
+            }
+            c[c0 + j] = s;
+        }
+    }
+
+    /*
+     * C (m x n) += A (m x k) * B^T, with B stored n x k. Every element is a dot
+     * product of two contiguous rows; four of them share each load of A's row, and
+     * ROW_BLOCK rows of B are reused across a block of A's rows while they are cached.
+     */
+    public static void multiplyTransposeB(float[] a, float[] b, float[] c, int m, int k, int n) {
+        for (int j0 = 0; j0 < n; j0 += ROW_BLOCK) {
+            int j1 = Math.min(n, j0 + ROW_BLOCK);
+            for (int i = 0; i < m; i++) {
+                int ai = i * k;
+                int j = j0;
+                for (; j + 3 < j1; j += 4) {
+                    int b0 = j * k;
+                    int b1 = b0 + k;
+                    int b2 = b1 + k;
+                    int b3 = b2 + k;
+                    FloatVector s0 = FloatVector.zero(SPECIES);
+                    FloatVector s1 = FloatVector.zero(SPECIES);
+                    FloatVector s2 = FloatVector.zero(SPECIES);
+                    FloatVector s3 = FloatVector.zero(SPECIES);
+                    int p = 0;
+                    for (; p + L <= k; p += L) {
+                        FloatVector av = FloatVector.fromArray(SPECIES, a, ai + p);
+                        s0 = FloatVector.fromArray(SPECIES, b, b0 + p).fma(av, s0);
+                        s1 = FloatVector.fromArray(SPECIES, b, b1 + p).fma(av, s1);
+                        s2 = FloatVector.fromArray(SPECIES, b, b2 + p).fma(av, s2);
+                        s3 = FloatVector.fromArray(SPECIES, b, b3 + p).fma(av, s3);
+                    }
+                    float t0 = s0.reduceLanes(VectorOperators.ADD);
+                    float t1 = s1.reduceLanes(VectorOperators.ADD);
+                    float t2 = s2.reduceLanes(VectorOperators.ADD);
+                    float t3 = s3.reduceLanes(VectorOperators.ADD);
+                    for (; p < k; p++) {
+                        float x = a[ai + p];
+                        t0 += x * b[b0 + p];
+                        t1 += x * b[b1 + p];
+                        t2 += x * b[b2 + p];
+                        t3 += x * b[b3 + p];
+                    }
+                    c[i * n + j] += t0;
+                    c[i * n + j + 1] += t1;
+                    c[i * n + j + 2] += t2;
+                    c[i * n + j + 3] += t3;
+                }
+                for (; j < j1; j++) {
+                    int bj = j * k;
+                    FloatVector s = FloatVector.zero(SPECIES);
+                    int p = 0;
+                    for (; p + L <= k; p += L) {
+                        s = FloatVector.fromArray(SPECIES, b, bj + p).fma(FloatVector.fromArray(SPECIES, a, ai + p), s);
+                    }
+                    float t = s.reduceLanes(VectorOperators.ADD);
+                    for (; p < k; p++) {
+                        t += a[ai + p] * b[bj + p];
+                    }
+                    c[i * n + j] += t;
+                }
+            }
+        }
+    }
+
+    // z[0..count) = 1 / (1 + e^-z)
+    public static void sigmoid(float[] z, int count) {
+        FloatVector one = FloatVector.broadcast(SPECIES, 1f);
+        int i = 0;
+        for (; i + L <= count; i += L) {
+            FloatVector v = FloatVector.fromArray(SPECIES, z, i);
+            one.div(v.neg().lanewise(VectorOperators.EXP).add(one)).intoArray(z, i);
+        }
+        for (; i < count; i++) {
+            z[i] = (float) (1 / (1 + Math.exp(-z[i])));
+        }
+    }
+
+    // delta[0..count) *= y * (1 - y), the sigmoid's derivative from its output y
+    public static void scaleBySigmoidDerivative(float[] delta, float[] y, int count) {
+        FloatVector one = FloatVector.broadcast(SPECIES, 1f);
+        int i = 0;
+        for (; i + L <= count; i += L) {
+            FloatVector yv = FloatVector.fromArray(SPECIES, y, i);
+            FloatVector.fromArray(SPECIES, delta, i).mul(yv).mul(one.sub(yv)).intoArray(delta, i);
+        }
+        for (; i < count; i++) {
+            delta[i] *= y[i] * (1 - y[i]);
+        }
+    }
+
+    // y[0..count) += alpha * x
+    public static void axpy(float alpha, float[] x, float[] y, int count) {
+        FloatVector va = FloatVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        for (; i + L <= count; i += L) {
+            FloatVector.fromArray(SPECIES, x, i).fma(va, FloatVector.fromArray(SPECIES, y, i)).intoArray(y, i);
+        }
+        for (; i < count; i++) {
+            y[i] += alpha * x[i];
+        }
+    }
+
+    // Sum of a[aOff + i] * b[bOff + i] for i in [0, count), widened to int before multiplying
+    public static int dotInt8(byte[] a, int aOff, byte[] b, int bOff, int count) {
+        int lanes = Int8.BYTE_SPECIES.length();
+        IntVector sum = IntVector.zero(Int8.INT_SPECIES);
+        int i = 0;
+        for (; i + lanes <= count; i += lanes) {
+            ByteVector x = ByteVector.fromArray(Int8.BYTE_SPECIES, a, aOff + i);
+            ByteVector y = ByteVector.fromArray(Int8.BYTE_SPECIES, b, bOff + i);
+            for (int part = 0; part < Int8.PARTS; part++) {
+                IntVector xi = (IntVector) x.convertShape(VectorOperators.B2I, Int8.INT_SPECIES, part);
+                IntVector yi = (IntVector) y.convertShape(VectorOperators.B2I, Int8.INT_SPECIES, part);
+                sum = sum.add(xi.mul(yi));
+            }
+        }
+        int result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < count; i++) {
+            result += a[aOff + i] * b[bOff + i];
+        }
+        return result;
+    }
+}
@@ -1,144 +1,2751 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NeuralNetworkSimulator {
     private static final Random random = new Random();
 
-    // Network parameters
+    // Default network parameters: the classic 2-2-1 XOR net
     private static final int INPUT_NEURONS = 2;
     private static final int HIDDEN_NEURONS = 2;
     private static final int OUTPUT_NEURONS = 1;
     private static final double LEARNING_RATE = 0.5;
 
-    // Weights
-    private double[][] weightsInputHidden = new double[INPUT_NEURONS][HIDDEN_NEURONS];
-    private double[] weightsHiddenOutput = new double[HIDDEN_NEURONS];
+    /*
+     * One fully connected layer. The weights sit in a single row-major inputs x outputs
+     * array, weights[i * outputs + j] joining input i to output j, so a whole batch goes
+     * through the layer as one matrix product.
+     */
+    private static final class Layer {
+        final int inputs;
+        final int outputs;
+        final double[] weights;
+        final double[] biases;
+        Activation activation = StandardActivation.SIGMOID;
 
-    // Biases
-    private double[] biasHidden = new double[HIDDEN_NEURONS];
-    private double biasOutput;
+        Layer(int inputs, int outputs) {
+            this(inputs, outputs, true);
+        }
+
+        // Without `initialise` the parameters stay zero, for a layer about to be loaded
+        Layer(int inputs, int outputs, boolean initialise) {
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.weights = new double[inputs * outputs];
+            this.biases = new double[outputs];
+            if (!initialise) return;
+
+            // Xavier/Glorot range keeps the sigmoid out of saturation as layers get wider
+            double range = Math.sqrt(6.0 / (inputs + outputs));
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = (random.nextDouble() * 2 - 1) * range;
+            }
+            for (int j = 0; j < outputs; j++) {
+                biases[j] = (random.nextDouble() * 2 - 1) * range;
+            }
+        }
+    }
+
+    /*
+     * Scratch buffers for batches of up to `capacity` rows: the gathered batch, each
+     * layer's outputs and deltas (rows x units, row-major) and each layer's gradients.
+     * They are reused from batch to batch, so a training step allocates nothing.
+     * Inference-only workspaces leave targets, deltas and gradients null.
+     */
+    private static final class Workspace {
+        final int capacity;
+        final double[] inputs;
+        final double[] targets;
+        final double[][] outputs;
+        final double[][] deltas;
+        final double[][] weightGrads;
+        final double[][] biasGrads;
+        double loss; // summed squared error of the rows behind the gradients
+
+        Workspace(Layer[] layers, int capacity) {
+            this(layers, capacity, true);
+        }
+
+        Workspace(Layer[] layers, int capacity, boolean training) {
+            this.capacity = capacity;
+            this.inputs = new double[capacity * layers[0].inputs];
+            this.targets = training ? new double[capacity * layers[layers.length - 1].outputs] : null;
+            this.outputs = new double[layers.length][];
+            this.deltas = training ? new double[layers.length][] : null;
+            this.weightGrads = training ? new double[layers.length][] : null;
+            this.biasGrads = training ? new double[layers.length][] : null;
+            for (int l = 0; l < layers.length; l++) {
+                outputs[l] = new double[capacity * layers[l].outputs];
+                if (training) {
+                    deltas[l] = new double[capacity * layers[l].outputs];
+                    weightGrads[l] = new double[layers[l].weights.length];
+                    biasGrads[l] = new double[layers[l].outputs];
+                }
+            }
+        }
+    }
+
+    /*
+     * Row-major dense kernels for the batch passes. Each one accumulates into C and
+     * works in tiles so the part of B being reused stays in cache. The innermost loops
+     * walk contiguous memory so the JIT can vectorize them, and multiply and
+     * multiplyTransposeA update four rows of C per pass, so every load of B feeds four
+     * multiply-adds.
+     */
+    private static final class Matrix {
+        private static final int BLOCK = 64;
+        private static final int COLUMN_BLOCK = 256;
+
+        // C (m x n) += A (m x k) * B (k x n)
+        static void multiply(double[] a, double[] b, double[] c, int m, int k, int n) {
+            for (int p0 = 0; p0 < k; p0 += BLOCK) {
+                int p1 = Math.min(k, p0 + BLOCK);
+                for (int j0 = 0; j0 < n; j0 += COLUMN_BLOCK) {
+                    int j1 = Math.min(n, j0 + COLUMN_BLOCK);
+                    int i = 0;
+                    for (; i + 3 < m; i += 4) {
+                        int a0 = i * k;
+                        for (int p = p0; p < p1; p++) {
+                            rank1x4(a[a0 + p], a[a0 + k + p], a[a0 + 2 * k + p], a[a0 + 3 * k + p],
+                                    b, p * n, c, i * n, n, j0, j1);
+                        }
+                    }
+                    for (; i < m; i++) {
+                        for (int p = p0; p < p1; p++) {
+                            rank1(a[i * k + p], b, p * n, c, i * n, j0, j1);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Rows c0..c0+3n of C, columns [j0, j1), += x0..x3 times row bp of B
+        private static void rank1x4(double x0, double x1, double x2, double x3, double[] b, int bp,
+                                    double[] c, int c0, int n, int j0, int j1) {
+            int c1 = c0 + n;
+            int c2 = c1 + n;
+            int c3 = c2 + n;
+            for (int j = j0; j < j1; j++) {
+                double bj = b[bp + j];
+                c[c0 + j] += x0 * bj;
+                c[c1 + j] += x1 * bj;
+                c[c2 + j] += x2 * bj;
+                c[c3 + j] += x3 * bj;
+            }
+        }
+
+        private static void rank1(double x, double[] b, int bp, double[] c, int ci, int j0, int j1) {
+            if (x == 0) return;
+            for (int j = j0; j < j1; j++) {
+                c[ci + j] += x * b[bp + j];
+            }
+        }
+
+        // C (m x n) += A (m x k) * B^T, with B stored n x k
+        static void multiplyTransposeB(double[] a, double[] b, double[] c, int m, int k, int n) {
+            for (int i0 = 0; i0 < m; i0 += BLOCK) {
+                int i1 = Math.min(m, i0 + BLOCK);
+                for (int j0 = 0; j0 < n; j0 += BLOCK) {
+                    int j1 = Math.min(n, j0 + BLOCK);
+                    for (int i = i0; i < i1; i++) {
+                        int ai = i * k;
+                        for (int j = j0; j < j1; j++) {
+                            int bj = j * k;
+                            double sum = 0;
+                            for (int p = 0; p < k; p++) {
+                                sum += a[ai + p] * b[bj + p];
+                            }
+                            c[i * n + j] += sum;
+                        }
+                    }
+                }
+            }
+        }
+
+        // C (m x n) += A^T * B, with A stored k x m and B stored k x n
+        static void multiplyTransposeA(double[] a, double[] b, double[] c, int m, int k, int n) {
+            for (int i0 = 0; i0 < m; i0 += BLOCK) {
+                int i1 = Math.min(m, i0 + BLOCK);
+                for (int j0 = 0; j0 < n; j0 += COLUMN_BLOCK) {
+                    int j1 = Math.min(n, j0 + COLUMN_BLOCK);
+                    for (int p = 0; p < k; p++) {
+                        int ap = p * m;
+                        int i = i0;
+                        for (; i + 3 < i1; i += 4) {
+                            rank1x4(a[ap + i], a[ap + i + 1], a[ap + i + 2], a[ap + i + 3],
+                                    b, p * n, c, i * n, n, j0, j1);
+                        }
+                        for (; i < i1; i++) {
+                            rank1(a[ap + i], b, p * n, c, i * n, j0, j1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * float32 kernels behind the FLOAT32 precision. The cache-blocked Vector API versions
+     * live in NeuralNetworkVectorKernel.java and are bound through method handles when
+     * that class is on the class path; otherwise these plain float loops stand in, so
+     * the backend stays usable (if slower) without the incubator module.
+     */
+    private static final class FloatKernel {
+        private static final MethodHandle MULTIPLY;
+        private static final MethodHandle MULTIPLY_TRANSPOSE_A;
+        private static final MethodHandle MULTIPLY_TRANSPOSE_B;
+        private static final MethodHandle SIGMOID;
+        private static final MethodHandle SIGMOID_DERIVATIVE;
+        private static final MethodHandle AXPY;
+        private static final int LANES;
+
+        static {
+            MethodHandle[] handles = new MethodHandle[6];
+            int lanes = 1;
+            try {
+                Class<?> kernel = Class.forName("NeuralNetworkVectorKernel");
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                MethodType gemm = MethodType.methodType(void.class, float[].class, float[].class, float[].class,
+                        int.class, int.class, int.class);
+                lanes = (int) lookup.findStatic(kernel, "lanes", MethodType.methodType(int.class)).invokeExact();
+                handles[0] = lookup.findStatic(kernel, "multiply", gemm);
+                handles[1] = lookup.findStatic(kernel, "multiplyTransposeA", gemm);
+                handles[2] = lookup.findStatic(kernel, "multiplyTransposeB", gemm);
+                handles[3] = lookup.findStatic(kernel, "sigmoid",
+                        MethodType.methodType(void.class, float[].class, int.class));
+                handles[4] = lookup.findStatic(kernel, "scaleBySigmoidDerivative",
+                        MethodType.methodType(void.class, float[].class, float[].class, int.class));
+                handles[5] = lookup.findStatic(kernel, "axpy",
+                        MethodType.methodType(void.class, float.class, float[].class, float[].class, int.class));
+            } catch (Throwable e) {
+                // Not compiled, or the incubator module was not added: use the float loops below
+                Arrays.fill(handles, null);
+            }
+            boolean vector = lanes > 1 && handles[5] != null;
+            MULTIPLY = vector ? handles[0] : null;
+            MULTIPLY_TRANSPOSE_A = vector ? handles[1] : null;
+            MULTIPLY_TRANSPOSE_B = vector ? handles[2] : null;
+            SIGMOID = vector ? handles[3] : null;
+            SIGMOID_DERIVATIVE = vector ? handles[4] : null;
+            AXPY = vector ? handles[5] : null;
+            LANES = vector ? lanes : 1;
+        }
+
+        static boolean isVectorized() {
+            return MULTIPLY != null;
+        }
+
+        static String describe() {
+            return isVectorized() ? "Vector API, " + LANES + " float lanes" : "scalar float loops";
+        }
+
+        // C (m x n) += A (m x k) * B (k x n)
+        static void multiply(float[] a, float[] b, float[] c, int m, int k, int n) {
+            if (MULTIPLY != null) {
+                try {
+                    MULTIPLY.invokeExact(a, b, c, m, k, n);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Vector kernel failed", e);
+                }
+                return;
+            }
+            for (int i = 0; i < m; i++) {
+                for (int p = 0; p < k; p++) {
+                    float x = a[i * k + p];
+                    for (int j = 0; j < n; j++) {
+                        c[i * n + j] += x * b[p * n + j];
+                    }
+                }
+            }
+        }
+
+        // C (m x n) += A^T * B, with A stored k x m and B stored k x n
+        static void multiplyTransposeA(float[] a, float[] b, float[] c, int m, int k, int n) {
+            if (MULTIPLY_TRANSPOSE_A != null) {
+                try {
+                    MULTIPLY_TRANSPOSE_A.invokeExact(a, b, c, m, k, n);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Vector kernel failed", e);
+                }
+                return;
+            }
+            for (int p = 0; p < k; p++) {
+                for (int i = 0; i < m; i++) {
+                    float x = a[p * m + i];
+                    for (int j = 0; j < n; j++) {
+                        c[i * n + j] += x * b[p * n + j];
+                    }
+                }
+            }
+        }
+
+        // C (m x n) += A (m x k) * B^T, with B stored n x k
+        static void multiplyTransposeB(float[] a, float[] b, float[] c, int m, int k, int n) {
+            if (MULTIPLY_TRANSPOSE_B != null) {
+                try {
+                    MULTIPLY_TRANSPOSE_B.invokeExact(a, b, c, m, k, n);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Vector kernel failed", e);
+                }
+                return;
+            }
+            for (int i = 0; i < m; i++) {
+                for (int j = 0; j < n; j++) {
+                    float sum = 0;
+                    for (int p = 0; p < k; p++) {
+                        sum += a[i * k + p] * b[j * k + p];
+                    }
+                    c[i * n + j] += sum;
+                }
+            }
+        }
+
+        static void sigmoid(float[] z, int count) {
+            if (SIGMOID != null) {
+                try {
+                    SIGMOID.invokeExact(z, count);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Vector kernel failed", e);
+                }
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                z[i] = (float) (1 / (1 + Math.exp(-z[i])));
+            }
+        }
+
+        // delta *= y * (1 - y)
+        static void scaleBySigmoidDerivative(float[] delta, float[] y, int count) {
+            if (SIGMOID_DERIVATIVE != null) {
+                try {
+                    SIGMOID_DERIVATIVE.invokeExact(delta, y, count);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Vector kernel failed", e);
+                }
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                delta[i] *= y[i] * (1 - y[i]);
+            }
+        }
+
+        // y += alpha * x
+        static void axpy(float alpha, float[] x, float[] y, int count) {
+            if (AXPY != null) {
+                try {
+                    AXPY.invokeExact(alpha, x, y, count);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Vector kernel failed", e);
+                }
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                y[i] += alpha * x[i];
+            }
+        }
+    }
+
+    /*
+     * A neuron's nonlinearity. The derivative is taken from the activation's output,
+     * which is what backpropagation has at hand; every standard activation can express
+     * it that way. The batch methods exist so implementations can keep the per-element
+     * call inside their own loop.
+     */
+    public interface Activation {
+        double apply(double x);
+
+        // Derivative at the input x for which y = apply(x)
+        double derivative(double y);
+
+        default void apply(double[] z, int count) {
+            for (int i = 0; i < count; i++) {
+                z[i] = apply(z[i]);
+            }
+        }
+
+        default void scaleByDerivative(double[] delta, double[] y, int count) {
+            for (int i = 0; i < count; i++) {
+                delta[i] *= derivative(y[i]);
+            }
+        }
+    }
+
+    /*
+     * The built-in activations. The FAST_ variants trade a little accuracy for not
+     * calling Math.exp; their maximum absolute errors, measured over [-20, 20] in steps
+     * of 1e-5, are:
+     *
+     *   FAST_SIGMOID  linear interpolation in a 8193-entry table over [-16, 16],
+     *                 clamped outside: error < 2e-7 (interpolation h^2/8 * max|f''|
+     *                 = 1.8e-7, clamping 1.1e-7)
+     *   FAST_TANH     Lambert's continued fraction for tanh cut at x^9 / x^8, a
+     *                 rational function, clamped to +-1 beyond |x| = 5.64 where the
+     *                 clamp and the fraction err equally: error < 2.6e-5
+     *
+     * Their derivatives use the same formulas as the exact versions, applied to the
+     * approximate output.
+     */
+    public enum StandardActivation implements Activation {
+        SIGMOID, FAST_SIGMOID, TANH, FAST_TANH, RELU, LEAKY_RELU;
+
+        private static final double LEAK = 0.01;
+        private static final double TABLE_RANGE = 16;
+        private static final int TABLE_STEPS_PER_UNIT = 256;
+        private static final double[] SIGMOID_TABLE = new double[(int) (2 * TABLE_RANGE * TABLE_STEPS_PER_UNIT) + 1];
+        private static final double TANH_CLAMP = 5.64;
+
+        static {
+            for (int i = 0; i < SIGMOID_TABLE.length; i++) {
+                SIGMOID_TABLE[i] = 1 / (1 + Math.exp(TABLE_RANGE - (double) i / TABLE_STEPS_PER_UNIT));
+            }
+        }
+
+        @Override
+        public double apply(double x) {
+            switch (this) {
+                case SIGMOID:
+                    return 1 / (1 + Math.exp(-x));
+                case FAST_SIGMOID: {
+                    if (x <= -TABLE_RANGE) return SIGMOID_TABLE[0];
+                    if (x >= TABLE_RANGE) return SIGMOID_TABLE[SIGMOID_TABLE.length - 1];
+                    double t = (x + TABLE_RANGE) * TABLE_STEPS_PER_UNIT;
+                    int i = (int) t;
+                    double lo = SIGMOID_TABLE[i];
+                    return lo + (t - i) * (SIGMOID_TABLE[i + 1] - lo);
+                }
+                case TANH:
+                    return Math.tanh(x);
+                case FAST_TANH: {
+                    if (x >= TANH_CLAMP) return 1;
+                    if (x <= -TANH_CLAMP) return -1;
+                    double x2 = x * x;
+                    return x * (2027025 + x2 * (270270 + x2 * (6930 + x2 * 36)))
+                            / (2027025 + x2 * (945945 + x2 * (51975 + x2 * (630 + x2))));
+                }
+                case RELU:
+                    return x > 0 ? x : 0;
+                default:
+                    return x > 0 ? x : LEAK * x;
+            }
+        }
+
+        @Override
+        public double derivative(double y) {
+            switch (this) {
+                case SIGMOID:
+                case FAST_SIGMOID:
+                    return y * (1 - y);
+                case TANH:
+                case FAST_TANH:
+                    return 1 - y * y;
+                case RELU:
+                    return y > 0 ? 1 : 0;
+                default:
+                    return y > 0 ? 1 : LEAK;
+            }
+        }
+
+        static StandardActivation parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown activation " + name + "; expected one of "
+                        + Arrays.toString(values()).toLowerCase());
+            }
+        }
+    }
+
+    /*
+     * Update rules for applyGradients. The state of the adaptive ones is kept in place in
+     * `slots` arrays per parameter array, allocated once by setOptimizer:
+     *
+     *   SGD       w -= rate * g
+     *   MOMENTUM  v = 0.9 v + g;  w -= rate * v
+     *   RMSPROP   s = 0.9 s + 0.1 g^2;  w -= rate * g / (sqrt(s) + 1e-8)
+     *   ADAM      m = 0.9 m + 0.1 g;  v = 0.999 v + 0.001 g^2;
+     *             w -= rate * m^ / (sqrt(v^) + 1e-8), m^ and v^ bias-corrected
+     *
+     * where g is the batch-mean gradient. The adaptive rules want far smaller rates than
+     * SGD: around 0.01 rather than 0.5.
+     */
+    public enum Optimizer {
+        SGD(0), MOMENTUM(1), RMSPROP(1), ADAM(2);
+
+        final int slots;
+
+        Optimizer(int slots) {
+            this.slots = slots;
+        }
+
+        static Optimizer parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown optimizer " + name + "; expected one of "
+                        + Arrays.toString(values()).toLowerCase());
+            }
+        }
+    }
+
+    private static final double MOMENTUM_DECAY = 0.9;
+    private static final double RMS_DECAY = 0.9;
+    private static final double ADAM_BETA1 = 0.9;
+    private static final double ADAM_BETA2 = 0.999;
+    private static final double EPSILON = 1e-8;
+
+    // Arithmetic used by fit(): the double kernels above or the float32 FloatKernel backend
+    public enum Precision { DOUBLE, FLOAT32 }
+
+    private final Layer[] layers;
+    private double learningRate = LEARNING_RATE;
+    private Precision precision = Precision.DOUBLE;
+    private Optimizer optimizer = Optimizer.SGD;
+    /*
+     * Optimizer state, slot-major: optimizerState[slot * 2L + 2l] has the shape of layer
+     * l's weights and [slot * 2L + 2l + 1] of its biases, for L layers.
+     */
+    private double[][] optimizerState = new double[0][];
+    private long optimizerSteps; // for Adam's bias correction
+    private Workspace sampleWorkspace; // one-row workspace behind feedForward
+
+    // Layer sizes from input to output, e.g. (2, 2, 1) for the XOR net
+    public NeuralNetworkSimulator(int... sizes) {
+        this(sizes, true);
+    }
+
+    private NeuralNetworkSimulator(int[] sizes, boolean initialise) {
+        if (sizes.length < 2) {
+            throw new IllegalArgumentException("A network needs at least an input and an output layer");
+        }
+        layers = new Layer[sizes.length - 1];
+        for (int l = 0; l < layers.length; l++) {
+            if (sizes[l] <= 0 || sizes[l + 1] <= 0) {
+                throw new IllegalArgumentException("Layer sizes must be positive: " + Arrays.toString(sizes));
+            }
+            layers[l] = new Layer(sizes[l], sizes[l + 1], initialise);
+        }
+    }
+
+    public NeuralNetworkSimulator() {
+        this(INPUT_NEURONS, HIDDEN_NEURONS, OUTPUT_NEURONS);
+    }
+
+    public int inputSize() {
+        return layers[0].inputs;
+    }
+
+    public int outputSize() {
+        return layers[layers.length - 1].outputs;
+    }
+
+    // Layer sizes from input to output
+    public int[] sizes() {
+        int[] sizes = new int[layers.length + 1];
+        sizes[0] = inputSize();
+        for (int l = 0; l < layers.length; l++) {
+            sizes[l + 1] = layers[l].outputs;
+        }
+        return sizes;
+    }
+
+    public void save(Path file) throws IOException {
+        ModelFile.save(this, file);
+    }
+
+    public static NeuralNetworkSimulator load(Path file) throws IOException {
+        return ModelFile.load(file);
+    }
+
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+    }
+
+    // Activation of layer `layer`, counting the first hidden layer as 0 and the output layer last
+    public void setActivation(int layer, Activation activation) {
+        layers[layer].activation = activation;
+    }
+
+    public void setActivations(Activation hidden, Activation output) {
+        for (int l = 0; l < layers.length - 1; l++) {
+            layers[l].activation = hidden;
+        }
+        layers[layers.length - 1].activation = output;
+    }
+
+    // Switches the update rule, starting it from zeroed state
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+        optimizerState = new double[optimizer.slots * 2 * layers.length][];
+        for (int i = 0; i < optimizerState.length; i++) {
+            optimizerState[i] = new double[parameters(i % (2 * layers.length)).length];
+        }
+        optimizerSteps = 0;
+    }
+
+    // Parameter array `index`: layer index / 2's weights when even, its biases when odd
+    private double[] parameters(int index) {
+        Layer layer = layers[index / 2];
+        return index % 2 == 0 ? layer.weights : layer.biases;
+    }
+
+    // Forward propagation of `count` rows of `input` (count x inputSize) into ws.outputs
+    private void forward(double[] input, int count, Workspace ws) {
+        double[] x = input;
+        for (int l = 0; l < layers.length; l++) {
+            Layer layer = layers[l];
+            double[] z = ws.outputs[l];
+            for (int r = 0; r < count; r++) {
+                System.arraycopy(layer.biases, 0, z, r * layer.outputs, layer.outputs);
+            }
+            Matrix.multiply(x, layer.weights, z, count, layer.inputs, layer.outputs);
+            layer.activation.apply(z, count * layer.outputs);
+            x = z;
+        }
+    }
+
+    /*
+     * Backpropagation of the squared error over a batch that has just been through
+     * forward(). Leaves the summed gradients of every layer in ws and returns the
+     * batch's summed squared error.
+     */
+    private double backward(double[] input, double[] target, int count, Workspace ws) {
+        int last = layers.length - 1;
+        double[] output = ws.outputs[last];
+        double[] delta = ws.deltas[last];
+        double loss = 0;
+        for (int i = 0; i < count * layers[last].outputs; i++) {
+            double error = output[i] - target[i];
+            loss += error * error;
+            delta[i] = error;
+        }
+        layers[last].activation.scaleByDerivative(delta, output, count * layers[last].outputs);
+
+        for (int l = last; l >= 0; l--) {
+            Layer layer = layers[l];
+            double[] x = l == 0 ? input : ws.outputs[l - 1];
+            delta = ws.deltas[l];
+
+            double[] weightGrad = ws.weightGrads[l];
+            Arrays.fill(weightGrad, 0);
+            Matrix.multiplyTransposeA(x, delta, weightGrad, layer.inputs, count, layer.outputs);
+            double[] biasGrad = ws.biasGrads[l];
+            Arrays.fill(biasGrad, 0);
+            for (int r = 0; r < count; r++) {
+                for (int j = 0; j < layer.outputs; j++) {
+                    biasGrad[j] += delta[r * layer.outputs + j];
+                }
+            }
+
+            // Error for the layer below, through the weights as they were for this batch
+            if (l > 0) {
+                double[] below = ws.deltas[l - 1];
+                double[] belowOutput = ws.outputs[l - 1];
+                Arrays.fill(below, 0, count * layer.inputs, 0);
+                Matrix.multiplyTransposeB(delta, layer.weights, below, count, layer.outputs, layer.inputs);
+                layers[l - 1].activation.scaleByDerivative(below, belowOutput, count * layer.inputs);
+            }
+        }
+        return loss;
+    }
+
+    // One optimizer step with the gradients in ws, summed over `count` rows
+    private void applyGradients(Workspace ws, int count) {
+        optimizerSteps++;
+        for (int l = 0; l < layers.length; l++) {
+            step(layers[l].weights, ws.weightGrads[l], 2 * l, 1.0 / count);
+            step(layers[l].biases, ws.biasGrads[l], 2 * l + 1, 1.0 / count);
+        }
+    }
+
+    // Updates parameter array `index` from its summed gradients, which gradScale turns into means
+    private void step(double[] params, double[] grads, int index, double gradScale) {
+        double rate = learningRate;
+        switch (optimizer) {
+            case SGD:
+                for (int i = 0; i < params.length; i++) {
+                    params[i] -= rate * gradScale * grads[i];
+                }
+                break;
+            case MOMENTUM: {
+                double[] velocity = optimizerState[index];
+                for (int i = 0; i < params.length; i++) {
+                    velocity[i] = MOMENTUM_DECAY * velocity[i] + gradScale * grads[i];
+                    params[i] -= rate * velocity[i];
+                }
+                break;
+            }
+            case RMSPROP: {
+                double[] meanSquare = optimizerState[index];
+                for (int i = 0; i < params.length; i++) {
+                    double g = gradScale * grads[i];
+                    meanSquare[i] = RMS_DECAY * meanSquare[i] + (1 - RMS_DECAY) * g * g;
+                    params[i] -= rate * g / (Math.sqrt(meanSquare[i]) + EPSILON);
+                }
+                break;
+            }
+            default: {
+                double[] first = optimizerState[index];
+                double[] second = optimizerState[2 * layers.length + index];
+                double correction1 = 1 - Math.pow(ADAM_BETA1, optimizerSteps);
+                double correction2 = 1 - Math.pow(ADAM_BETA2, optimizerSteps);
+                for (int i = 0; i < params.length; i++) {
+                    double g = gradScale * grads[i];
+                    first[i] = ADAM_BETA1 * first[i] + (1 - ADAM_BETA1) * g;
+                    second[i] = ADAM_BETA2 * second[i] + (1 - ADAM_BETA2) * g * g;
+                    params[i] -= rate * (first[i] / correction1) / (Math.sqrt(second[i] / correction2) + EPSILON);
+                }
+                break;
+            }
+        }
+    }
+
+    /*
+     * Hogwild variant of applyGradients, always plain SGD: no lock is taken while other
+     * threads update the same arrays, and entries with a zero gradient are not written
+     * at all, so on sparse inputs threads rarely touch the same weights and lost
+     * updates stay rare.
+     */
+    private void applyGradientsSparse(Workspace ws, double scale) {
+        for (int l = 0; l < layers.length; l++) {
+            double[] weights = layers[l].weights;
+            double[] weightGrad = ws.weightGrads[l];
+            for (int i = 0; i < weights.length; i++) {
+                if (weightGrad[i] != 0) weights[i] -= scale * weightGrad[i];
+            }
+            double[] biases = layers[l].biases;
+            double[] biasGrad = ws.biasGrads[l];
+            for (int j = 0; j < biases.length; j++) {
+                if (biasGrad[j] != 0) biases[j] -= scale * biasGrad[j];
+            }
+        }
+    }
+
+    // Adds the gradients and loss of `from` into `into`
+    private static void accumulate(Workspace into, Workspace from) {
+        for (int l = 0; l < into.weightGrads.length; l++) {
+            double[] a = into.weightGrads[l];
+            double[] b = from.weightGrads[l];
+            for (int i = 0; i < a.length; i++) {
+                a[i] += b[i];
+            }
+            double[] c = into.biasGrads[l];
+            double[] d = from.biasGrads[l];
+            for (int j = 0; j < c.length; j++) {
+                c[j] += d[j];
+            }
+        }
+        into.loss += from.loss;
+    }
+
+    // Forward and backward pass over rows order[start..start+count) into ws's gradients and loss
+    private void computeGradients(double[] inputs, double[] targets, int[] order, int start, int count, Workspace ws) {
+        int in = inputSize();
+        int out = outputSize();
+        for (int r = 0; r < count; r++) {
+            int row = order[start + r];
+            System.arraycopy(inputs, row * in, ws.inputs, r * in, in);
+            System.arraycopy(targets, row * out, ws.targets, r * out, out);
+        }
+        forward(ws.inputs, count, ws);
+        ws.loss = backward(ws.inputs, ws.targets, count, ws);
+    }
+
+    /*
+     * Mini-batch training on `samples` rows of `inputs` (samples x inputSize) and
+     * `targets` (samples x outputSize), reshuffled every epoch. Returns the mean squared
+     * error per sample over the last epoch.
+     */
+    public double fit(double[] inputs, double[] targets, int samples, int epochs, int batchSize) {
+        int in = inputSize();
+        int out = outputSize();
+        if (inputs.length < samples * in || targets.length < samples * out || batchSize <= 0) {
+            throw new IllegalArgumentException("Training data does not match the network or batch size");
+        }
+        if (precision == Precision.FLOAT32) {
+            return fitFloat(inputs, targets, samples, epochs, batchSize);
+        }
+        Workspace ws = new Workspace(layers, Math.min(batchSize, samples));
+        int[] order = new int[samples];
+        for (int i = 0; i < samples; i++) {
+            order[i] = i;
+        }
+
+        double epochLoss = 0;
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            shuffle(order);
+            epochLoss = 0;
+            for (int start = 0; start < samples; start += ws.capacity) {
+                int count = Math.min(ws.capacity, samples - start);
+                computeGradients(inputs, targets, order, start, count, ws);
+                applyGradients(ws, count);
+                epochLoss += ws.loss;
+            }
+        }
+        return epochLoss / samples;
+    }
+
+    // fit() on the float32 backend: trains a float copy of the weights and stores it back at the end
+    private double fitFloat(double[] inputs, double[] targets, int samples, int epochs, int batchSize) {
+        FloatTrainer trainer = new FloatTrainer(Math.min(batchSize, samples));
+        int[] order = new int[samples];
+        for (int i = 0; i < samples; i++) {
+            order[i] = i;
+        }
+
+        double epochLoss = 0;
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            shuffle(order);
+            epochLoss = 0;
+            for (int start = 0; start < samples; start += trainer.capacity) {
+                int count = Math.min(trainer.capacity, samples - start);
+                trainer.gather(inputs, targets, order, start, count);
+                trainer.forward(count);
+                epochLoss += trainer.backward(count);
+                trainer.apply(count);
+            }
+        }
+        trainer.store();
+        return epochLoss / samples;
+    }
+
+    /*
+     * Single-precision mirror of the network plus the float equivalent of a Workspace.
+     * Same passes as forward/backward/applyGradients, on FloatKernel: half the bytes per
+     * weight and twice the SIMD lanes. Losses are still summed in double.
+     */
+    private final class FloatTrainer {
+        final int capacity;
+        final float[][] weights;
+        final float[][] biases;
+        final float[] inputs;
+        final float[] targets;
+        final float[][] outputs;
+        final float[][] deltas;
+        final float[][] weightGrads;
+        final float[][] biasGrads;
+        final float[][] state; // float copy of optimizerState, same layout
+
+        FloatTrainer(int capacity) {
+            this.capacity = capacity;
+            int n = layers.length;
+            weights = new float[n][];
+            biases = new float[n][];
+            outputs = new float[n][];
+            deltas = new float[n][];
+            weightGrads = new float[n][];
+            biasGrads = new float[n][];
+            for (int l = 0; l < n; l++) {
+                weights[l] = toFloat(layers[l].weights);
+                biases[l] = toFloat(layers[l].biases);
+                outputs[l] = new float[capacity * layers[l].outputs];
+                deltas[l] = new float[capacity * layers[l].outputs];
+                weightGrads[l] = new float[layers[l].weights.length];
+                biasGrads[l] = new float[layers[l].outputs];
+            }
+            inputs = new float[capacity * inputSize()];
+            targets = new float[capacity * outputSize()];
+            state = new float[optimizerState.length][];
+            for (int i = 0; i < state.length; i++) {
+                state[i] = toFloat(optimizerState[i]);
+            }
+        }
+
+        private float[] toFloat(double[] values) {
+            float[] result = new float[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = (float) values[i];
+            }
+            return result;
+        }
+
+        void gather(double[] source, double[] sourceTargets, int[] order, int start, int count) {
+            int in = inputSize();
+            int out = outputSize();
+            for (int r = 0; r < count; r++) {
+                int row = order[start + r];
+                for (int i = 0; i < in; i++) {
+                    inputs[r * in + i] = (float) source[row * in + i];
+                }
+                for (int j = 0; j < out; j++) {
+                    targets[r * out + j] = (float) sourceTargets[row * out + j];
+                }
+            }
+        }
+
+        void forward(int count) {
+            float[] x = inputs;
+            for (int l = 0; l < layers.length; l++) {
+                int units = layers[l].outputs;
+                float[] z = outputs[l];
+                for (int r = 0; r < count; r++) {
+                    System.arraycopy(biases[l], 0, z, r * units, units);
+                }
+                FloatKernel.multiply(x, weights[l], z, count, layers[l].inputs, units);
+                activate(layers[l].activation, z, count * units);
+                x = z;
+            }
+        }
+
+        double backward(int count) {
+            int last = layers.length - 1;
+            float[] output = outputs[last];
+            float[] delta = deltas[last];
+            double loss = 0;
+            for (int i = 0; i < count * layers[last].outputs; i++) {
+                float error = output[i] - targets[i];
+                loss += error * error;
+                delta[i] = error;
+            }
+            scaleByDerivative(layers[last].activation, delta, output, count * layers[last].outputs);
+
+            for (int l = last; l >= 0; l--) {
+                Layer layer = layers[l];
+                float[] x = l == 0 ? inputs : outputs[l - 1];
+                delta = deltas[l];
+                Arrays.fill(weightGrads[l], 0);
+                FloatKernel.multiplyTransposeA(x, delta, weightGrads[l], layer.inputs, count, layer.outputs);
+                float[] biasGrad = biasGrads[l];
+                Arrays.fill(biasGrad, 0);
+                for (int r = 0; r < count; r++) {
+                    for (int j = 0; j < layer.outputs; j++) {
+                        biasGrad[j] += delta[r * layer.outputs + j];
+                    }
+                }
+                if (l > 0) {
+                    float[] below = deltas[l - 1];
+                    Arrays.fill(below, 0, count * layer.inputs, 0);
+                    FloatKernel.multiplyTransposeB(delta, weights[l], below, count, layer.outputs, layer.inputs);
+                    scaleByDerivative(layers[l - 1].activation, below, outputs[l - 1], count * layer.inputs);
+                }
+            }
+            return loss;
+        }
+
+        // Sigmoid has a SIMD kernel; other activations go through their double formulas
+        private void activate(Activation activation, float[] z, int count) {
+            if (activation == StandardActivation.SIGMOID) {
+                FloatKernel.sigmoid(z, count);
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                z[i] = (float) activation.apply(z[i]);
+            }
+        }
+
+        private void scaleByDerivative(Activation activation, float[] delta, float[] y, int count) {
+            if (activation == StandardActivation.SIGMOID) {
+                FloatKernel.scaleBySigmoidDerivative(delta, y, count);
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                delta[i] *= (float) activation.derivative(y[i]);
+            }
+        }
+
+        // applyGradients for the float copy, over gradients summed across `count` rows
+        void apply(int count) {
+            optimizerSteps++;
+            for (int l = 0; l < layers.length; l++) {
+                step(weights[l], weightGrads[l], 2 * l, 1f / count);
+                step(biases[l], biasGrads[l], 2 * l + 1, 1f / count);
+            }
+        }
+
+        // Same rules as the double step()
+        private void step(float[] params, float[] grads, int index, float gradScale) {
+            float rate = (float) learningRate;
+            switch (optimizer) {
+                case SGD:
+                    FloatKernel.axpy(-rate * gradScale, grads, params, params.length);
+                    break;
+                case MOMENTUM: {
+                    float[] velocity = state[index];
+                    for (int i = 0; i < params.length; i++) {
+                        velocity[i] = (float) MOMENTUM_DECAY * velocity[i] + gradScale * grads[i];
+                        params[i] -= rate * velocity[i];
+                    }
+                    break;
+                }
+                case RMSPROP: {
+                    float[] meanSquare = state[index];
+                    for (int i = 0; i < params.length; i++) {
+                        float g = gradScale * grads[i];
+                        meanSquare[i] = (float) RMS_DECAY * meanSquare[i] + (float) (1 - RMS_DECAY) * g * g;
+                        params[i] -= rate * g / ((float) Math.sqrt(meanSquare[i]) + (float) EPSILON);
+                    }
+                    break;
+                }
+                default: {
+                    float[] first = state[index];
+                    float[] second = state[2 * layers.length + index];
+                    float correction1 = (float) (1 - Math.pow(ADAM_BETA1, optimizerSteps));
+                    float correction2 = (float) (1 - Math.pow(ADAM_BETA2, optimizerSteps));
+                    for (int i = 0; i < params.length; i++) {
+                        float g = gradScale * grads[i];
+                        first[i] = (float) ADAM_BETA1 * first[i] + (float) (1 - ADAM_BETA1) * g;
+                        second[i] = (float) ADAM_BETA2 * second[i] + (float) (1 - ADAM_BETA2) * g * g;
+                        params[i] -= rate * (first[i] / correction1)
+                                / ((float) Math.sqrt(second[i] / correction2) + (float) EPSILON);
+                    }
+                    break;
+                }
+            }
+        }
+
+        // Writes the trained float weights and optimizer state back into the double arrays
+        void store() {
+            for (int l = 0; l < layers.length; l++) {
+                for (int i = 0; i < weights[l].length; i++) {
+                    layers[l].weights[i] = weights[l][i];
+                }
+                for (int j = 0; j < biases[l].length; j++) {
+                    layers[l].biases[j] = biases[l][j];
+                }
+            }
+            for (int i = 0; i < state.length; i++) {
+                for (int j = 0; j < state[i].length; j++) {
+                    optimizerState[i][j] = state[i][j];
+                }
+            }
+        }
+    }
+
+    /*
+     * fit() over a memory-mapped Dataset. Only the shuffled row order and two batches
+     * live on the heap; a BatchLoader thread gathers the next batch from the mapping
+     * while the current one trains, so the data can be far larger than the heap.
+     */
+    public double fit(Dataset data, int epochs, int batchSize) {
+        if (data.inputSize != inputSize() || data.outputSize != outputSize() || batchSize <= 0) {
+            throw new IllegalArgumentException("Dataset does not match the network or batch size");
+        }
+        int capacity = Math.min(batchSize, data.samples);
+        Workspace ws = precision == Precision.DOUBLE ? new Workspace(layers, capacity) : null;
+        FloatTrainer trainer = precision == Precision.FLOAT32 ? new FloatTrainer(capacity) : null;
+        int[] rows = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            rows[i] = i;
+        }
+
+        double epochLoss = 0;
+        try (BatchLoader loader = new BatchLoader(data, capacity, epochs)) {
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                epochLoss = 0;
+                for (BatchLoader.Batch batch; (batch = loader.next()) != null; loader.release(batch)) {
+                    if (ws != null) {
+                        forward(batch.inputs, batch.count, ws);
+                        epochLoss += backward(batch.inputs, batch.targets, batch.count, ws);
+                        applyGradients(ws, batch.count);
+                    } else {
+                        trainer.gather(batch.inputs, batch.targets, rows, 0, batch.count);
+                        trainer.forward(batch.count);
+                        epochLoss += trainer.backward(batch.count);
+                        trainer.apply(batch.count);
+                    }
+                }
+            }
+        }
+        if (trainer != null) {
+            trainer.store();
+        }
+        return epochLoss / data.samples;
+    }
+
+    /*
+     * Data-parallel version of fit() on `pool`. Each mini-batch is cut into one shard
+     * per worker; every shard runs forward and backward into its own preallocated
+     * Workspace, and the shard gradients are summed pairwise up a binary tree as the
+     * fork/join tasks complete, so no lock is taken and the sum costs log2(shards)
+     * rounds. One descent step then uses the total, which makes a step equal to
+     * fit()'s up to rounding.
+     *
+     * With `hogwild` there is no reduction at all: each worker walks its own slice of
+     * the epoch in batches of batchSize and writes its updates straight into the shared
+     * weights (see applyGradientsSparse). This trades exactness for scaling and suits
+     * sparse inputs, where concurrent updates seldom collide. It only supports SGD,
+     * since the adaptive optimizers' state would race as well.
+     */
+    public double fitParallel(double[] inputs, double[] targets, int samples, int epochs, int batchSize,
+                              ForkJoinPool pool, boolean hogwild) {
+        if (inputs.length < samples * inputSize() || targets.length < samples * outputSize() || batchSize <= 0) {
+            throw new IllegalArgumentException("Training data does not match the network or batch size");
+        }
+        if (hogwild && optimizer != Optimizer.SGD) {
+            throw new IllegalArgumentException("Hogwild updates are plain SGD; set Optimizer.SGD first");
+        }
+        int workers = pool.getParallelism();
+        int shards = hogwild ? workers : Math.max(1, Math.min(workers, Math.min(batchSize, samples)));
+        int shardCapacity = hogwild ? Math.min(batchSize, samples) : (Math.min(batchSize, samples) + shards - 1) / shards;
+        List<Workspace> workspaces = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            workspaces.add(new Workspace(layers, shardCapacity));
+        }
+        int[] order = new int[samples];
+        for (int i = 0; i < samples; i++) {
+            order[i] = i;
+        }
+
+        double epochLoss = 0;
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            shuffle(order);
+            epochLoss = 0;
+            if (hogwild) {
+                pool.invoke(new HogwildTask(inputs, targets, order, samples, batchSize, workspaces, 0, shards));
+                for (Workspace ws : workspaces) {
+                    epochLoss += ws.loss;
+                }
+                continue;
+            }
+            for (int start = 0; start < samples; start += batchSize) {
+                int count = Math.min(batchSize, samples - start);
+                pool.invoke(new ShardTask(inputs, targets, order, start, count, workspaces, 0, shards));
+                Workspace total = workspaces.get(0);
+                applyGradients(total, count);
+                epochLoss += total.loss;
+            }
+        }
+        return epochLoss / samples;
+    }
+
+    // Computes shards [lo, hi) of one batch; on return workspace lo holds their summed gradients
+    private final class ShardTask extends RecursiveAction {
+        private final double[] inputs;
+        private final double[] targets;
+        private final int[] order;
+        private final int start;
+        private final int count;
+        private final List<Workspace> workspaces;
+        private final int lo;
+        private final int hi;
+
+        ShardTask(double[] inputs, double[] targets, int[] order, int start, int count,
+                  List<Workspace> workspaces, int lo, int hi) {
+            this.inputs = inputs;
+            this.targets = targets;
+            this.order = order;
+            this.start = start;
+            this.count = count;
+            this.workspaces = workspaces;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                int shards = workspaces.size();
+                int from = (int) ((long) count * lo / shards);
+                int to = (int) ((long) count * (lo + 1) / shards);
+                computeGradients(inputs, targets, order, start + from, to - from, workspaces.get(lo));
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ShardTask(inputs, targets, order, start, count, workspaces, lo, mid),
+                      new ShardTask(inputs, targets, order, start, count, workspaces, mid, hi));
+            accumulate(workspaces.get(lo), workspaces.get(mid));
+        }
+    }
+
+    // Workers [lo, hi) of a Hogwild epoch, each on its own contiguous slice of `order`
+    private final class HogwildTask extends RecursiveAction {
+        private final double[] inputs;
+        private final double[] targets;
+        private final int[] order;
+        private final int samples;
+        private final int batchSize;
+        private final List<Workspace> workspaces;
+        private final int lo;
+        private final int hi;
+
+        HogwildTask(double[] inputs, double[] targets, int[] order, int samples, int batchSize,
+                    List<Workspace> workspaces, int lo, int hi) {
+            this.inputs = inputs;
+            this.targets = targets;
+            this.order = order;
+            this.samples = samples;
+            this.batchSize = batchSize;
+            this.workspaces = workspaces;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new HogwildTask(inputs, targets, order, samples, batchSize, workspaces, lo, mid),
+                          new HogwildTask(inputs, targets, order, samples, batchSize, workspaces, mid, hi));
+                return;
+            }
+            int workers = workspaces.size();
+            int from = (int) ((long) samples * lo / workers);
+            int to = (int) ((long) samples * (lo + 1) / workers);
+            Workspace ws = workspaces.get(lo);
+            double loss = 0;
+            for (int start = from; start < to; start += ws.capacity) {
+                int count = Math.min(ws.capacity, to - start);
+                computeGradients(inputs, targets, order, start, count, ws);
+                applyGradientsSparse(ws, learningRate / count);
+                loss += ws.loss;
+            }
+            ws.loss = loss;
+        }
+    }
+
+    private static void shuffle(int[] order) {
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+    }
+
+    // Session for serving predictions from many threads; see InferenceSession
+    public InferenceSession newInferenceSession(int batchCapacity) {
+        if (batchCapacity <= 0) {
+            throw new IllegalArgumentException("Batch capacity must be positive");
+        }
+        return new InferenceSession(batchCapacity);
+    }
+
+    /*
+     * Batched prediction without garbage. Every calling thread gets its own inference
+     * workspace of `capacity` rows on its first call and keeps reusing it, so after
+     * that warmup a call allocates nothing and threads never share scratch memory.
+     * Larger requests are run through the workspace `capacity` rows at a time.
+     *
+     * The session only reads the weights, so any number of threads may predict at
+     * once, but not while the same network is being trained.
+     */
+    public final class InferenceSession {
+        private final int capacity;
+        private final ThreadLocal<Workspace> workspace;
+
+        private InferenceSession(int capacity) {
+            this.capacity = capacity;
+            this.workspace = ThreadLocal.withInitial(() -> new Workspace(layers, capacity, false));
+        }
+
+        // Writes the outputs of `rows` rows of `inputs` (rows x inputSize) into out (rows x outputSize)
+        public void predictBatch(double[] inputs, int rows, double[] out) {
+            int in = inputSize();
+            int outputs = outputSize();
+            if (rows < 0 || inputs.length < rows * in || out.length < rows * outputs) {
+                throw new IllegalArgumentException("Arrays too small for " + rows + " rows");
+            }
+            Workspace ws = workspace.get();
+            double[] result = ws.outputs[layers.length - 1];
+            for (int start = 0; start < rows; start += capacity) {
+                int count = Math.min(capacity, rows - start);
+                System.arraycopy(inputs, start * in, ws.inputs, 0, count * in);
+                forward(ws.inputs, count, ws);
+                System.arraycopy(result, 0, out, start * outputs, count * outputs);
+            }
+        }
+    }
+
+    /*
+     * A rows x cols matrix of numbers stored in a file, memory-mapped rather than read.
+     * `type` is an IDX element type code (0x08 unsigned byte, 0x09 byte, 0x0B short,
+     * 0x0C int, 0x0D float, 0x0E double), which also serves the raw float format. Rows
+     * are mapped in windows of up to 1 GB so files past 2 GB work, and reads use
+     * absolute gets, so any number of threads may read at once.
+     */
+    private static final class MappedMatrix {
+        private static final long WINDOW_BYTES = 1L << 30;
+
+        final int rows;
+        final int cols;
+        private final int type;
+        private final int elementBytes;
+        private final long rowBytes;
+        private final int rowsPerWindow;
+        private final MappedByteBuffer[] windows;
+
+        MappedMatrix(FileChannel channel, long offset, int rows, int cols, int type, ByteOrder order) throws IOException {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+            this.elementBytes = elementBytes(type);
+            this.rowBytes = (long) cols * elementBytes;
+            if (rowBytes > WINDOW_BYTES) {
+                throw new IllegalArgumentException("Rows of " + cols + " values are too wide to map");
+            }
+            if (channel.size() < offset + rows * rowBytes) {
+                throw new IllegalArgumentException("File is shorter than its " + rows + " x " + cols + " header says");
+            }
+            this.rowsPerWindow = (int) Math.min(rows, Math.max(1, WINDOW_BYTES / Math.max(1, rowBytes)));
+            this.windows = new MappedByteBuffer[rows == 0 ? 0 : (rows + rowsPerWindow - 1) / rowsPerWindow];
+            for (int w = 0; w < windows.length; w++) {
+                int windowRows = Math.min(rowsPerWindow, rows - w * rowsPerWindow);
+                windows[w] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        offset + (long) w * rowsPerWindow * rowBytes, windowRows * rowBytes);
+                windows[w].order(order);
+            }
+        }
 
-    public NeuralNetworkSimulator() {
-        initializeWeights();
+        static int elementBytes(int type) {
+            switch (type) {
+                case 0x08:
+                case 0x09:
+                    return 1;
+                case 0x0B:
+                    return 2;
+                case 0x0C:
+                case 0x0D:
+                    return 4;
+                case 0x0E:
+                    return 8;
+                default:
+                    throw new IllegalArgumentException("Unknown IDX element type 0x" + Integer.toHexString(type));
+            }
+        }
+
+        // Columns [from, from + count) of `row`, times `scale`, into dst[off..]
+        void read(int row, int from, int count, double[] dst, int off, double scale) {
+            MappedByteBuffer window = windows[row / rowsPerWindow];
+            int pos = (int) ((row % rowsPerWindow) * rowBytes) + from * elementBytes;
+            for (int i = 0; i < count; i++, pos += elementBytes) {
+                dst[off + i] = get(window, pos) * scale;
+            }
+        }
+
+        double value(int row, int col) {
+            return get(windows[row / rowsPerWindow], (int) ((row % rowsPerWindow) * rowBytes) + col * elementBytes);
+        }
+
+        private double get(MappedByteBuffer window, int pos) {
+            switch (type) {
+                case 0x08:
+                    return window.get(pos) & 0xFF;
+                case 0x09:
+                    return window.get(pos);
+                case 0x0B:
+                    return window.getShort(pos);
+                case 0x0C:
+                    return window.getInt(pos);
+                case 0x0D:
+                    return window.getFloat(pos);
+                default:
+                    return window.getDouble(pos);
+            }
+        }
     }
 
-    private void initializeWeights() {
-        for (int i = 0; i < INPUT_NEURONS; i++) {
-            for (int j = 0; j < HIDDEN_NEURONS; j++) {
-                weightsInputHidden[i][j] = random.nextDouble() * 2 - 1; // -1 to 1
+    /*
+     * Training data backed by memory-mapped files, so opening one reads nothing but
+     * headers and rows are paged in as batches touch them. Two layouts:
+     *
+     *   IDX (the MNIST format): an images file of N x d1 x ... values, flattened into
+     *   rows, and a labels file of N class numbers turned into one-hot targets. Unsigned
+     *   byte images are scaled to [0, 1].
+     *   Raw: little-endian float32 rows of inputSize inputs followed by outputSize
+     *   targets, with no header.
+     */
+    public static final class Dataset {
+        public final int samples;
+        public final int inputSize;
+        public final int outputSize;
+        private final MappedMatrix features;
+        private final double featureScale;
+        private final MappedMatrix labels; // IDX class numbers, or null when targets follow the inputs
+
+        private Dataset(MappedMatrix features, double featureScale, MappedMatrix labels, int inputSize, int outputSize) {
+            this.samples = features.rows;
+            this.inputSize = inputSize;
+            this.outputSize = outputSize;
+            this.features = features;
+            this.featureScale = featureScale;
+            this.labels = labels;
+        }
+
+        public static Dataset openIdx(Path images, Path labelFile) throws IOException {
+            MappedMatrix features = mapIdx(images);
+            MappedMatrix labels = mapIdx(labelFile);
+            if (labels.rows != features.rows || labels.cols != 1) {
+                throw new IllegalArgumentException("Expected " + features.rows + " labels in " + labelFile);
+            }
+            // One pass over the labels (a byte or so per sample) to size the one-hot targets
+            int classes = 0;
+            for (int r = 0; r < labels.rows; r++) {
+                double label = labels.value(r, 0);
+                if (label < 0 || label != Math.floor(label)) {
+                    throw new IllegalArgumentException("Labels must be class numbers: " + label + " in " + labelFile);
+                }
+                classes = Math.max(classes, (int) label + 1);
+            }
+            double scale = features.type == 0x08 ? 1 / 255.0 : 1;
+            return new Dataset(features, scale, labels, features.cols, classes);
+        }
+
+        public static Dataset openRaw(Path file, int inputSize, int outputSize) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long rowBytes = 4L * (inputSize + outputSize);
+                if (inputSize <= 0 || outputSize <= 0 || channel.size() % rowBytes != 0) {
+                    throw new IllegalArgumentException(file + " is not a whole number of " + rowBytes + "-byte rows");
+                }
+                long rows = channel.size() / rowBytes;
+                if (rows > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Too many rows in " + file);
+                }
+                MappedMatrix matrix = new MappedMatrix(channel, 0, (int) rows, inputSize + outputSize, 0x0D,
+                        ByteOrder.LITTLE_ENDIAN);
+                return new Dataset(matrix, 1, null, inputSize, outputSize);
+            }
+        }
+
+        // IDX header: two zero bytes, the element type, the number of dimensions, then big-endian int sizes
+        private static MappedMatrix mapIdx(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 4));
+                if (header.limit() < 4 || header.get(0) != 0 || header.get(1) != 0 || header.get(3) < 1) {
+                    throw new IllegalArgumentException("Not an IDX file: " + file);
+                }
+                int type = header.get(2) & 0xFF;
+                int dims = header.get(3);
+                header = channel.map(FileChannel.MapMode.READ_ONLY, 4, Math.min(channel.size() - 4, 4L * dims));
+                if (header.limit() < 4 * dims) {
+                    throw new IllegalArgumentException("Truncated IDX header: " + file);
+                }
+                int rows = header.getInt(0); // IDX is big-endian, the buffer default
+                long cols = 1;
+                for (int d = 1; d < dims; d++) {
+                    cols *= header.getInt(4 * d);
+                }
+                if (rows < 0 || cols <= 0 || cols > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Bad IDX dimensions in " + file);
+                }
+                return new MappedMatrix(channel, 4 + 4L * dims, rows, (int) cols, type, ByteOrder.BIG_ENDIAN);
             }
         }
-        for (int j = 0; j < HIDDEN_NEURONS; j++) {
-            weightsHiddenOutput[j] = random.nextDouble() * 2 - 1;
-            biasHidden[j] = random.nextDouble() * 2 - 1;
+
+        // Sample `row` into inputs[inOff..] and targets[outOff..]
+        public void read(int row, double[] inputs, int inOff, double[] targets, int outOff) {
+            features.read(row, 0, inputSize, inputs, inOff, featureScale);
+            if (labels == null) {
+                features.read(row, inputSize, outputSize, targets, outOff, 1);
+                return;
+            }
+            Arrays.fill(targets, outOff, outOff + outputSize, 0);
+            targets[outOff + (int) labels.value(row, 0)] = 1;
         }
-        biasOutput = random.nextDouble() * 2 - 1;
     }
 
-    // Activation function (sigmoid) and its derivative
-    private double sigmoid(double x) {
-        return 1 / (1 + Math.exp(-x));
+    /*
+     * Versioned little-endian model file, laid out so that loading is validation plus
+     * bulk copies out of a memory mapping, with nothing to parse:
+     *
+     *   int magic "NNSM", int version, int layer count L, int optimizer code,
+     *   double learning rate, int optimizer state slots S, int reserved (0),
+     *   long optimizer steps taken,
+     *   L + 1 int layer sizes, then L int activation codes, padded with zeros to a
+     *   multiple of 8 bytes,
+     *   then doubles: every layer's weights (row-major inputs x outputs) and biases,
+     *   then S optimizer state slots, each with the same shape as the parameters.
+     *
+     * Codes are Optimizer and StandardActivation ordinals, so new constants go at the
+     * end. Version 1 files predate the steps field and the activation codes; they hold
+     * all-sigmoid SGD networks and still load.
+     */
+    private static final class ModelFile {
+        private static final int MAGIC = 0x4d534e4e; // "NNSM" read little-endian
+        private static final int VERSION = 2;
+        private static final int WINDOW_DOUBLES = 1 << 27; // 1 GB of doubles per mapping
+
+        static void save(NeuralNetworkSimulator nn, Path file) throws IOException {
+            int layerCount = nn.layers.length;
+            int[] sizes = nn.sizes();
+            int[] activations = new int[layerCount];
+            for (int l = 0; l < layerCount; l++) {
+                if (!(nn.layers[l].activation instanceof StandardActivation)) {
+                    throw new IllegalArgumentException("Only standard activations can be saved, not "
+                            + nn.layers[l].activation);
+                }
+                activations[l] = ((StandardActivation) nn.layers[l].activation).ordinal();
+            }
+            long dataOffset = dataOffset(VERSION, layerCount);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+                header.order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt(MAGIC).putInt(VERSION).putInt(layerCount).putInt(nn.optimizer.ordinal())
+                        .putDouble(nn.learningRate).putInt(nn.optimizer.slots).putInt(0).putLong(nn.optimizerSteps);
+                for (int size : sizes) {
+                    header.putInt(size);
+                }
+                for (int activation : activations) {
+                    header.putInt(activation);
+                }
+                header.force();
+                long offset = dataOffset;
+                for (Layer layer : nn.layers) {
+                    offset = transfer(channel, offset, layer.weights, true);
+                    offset = transfer(channel, offset, layer.biases, true);
+                }
+                for (double[] state : nn.optimizerState) {
+                    offset = transfer(channel, offset, state, true);
+                }
+                channel.force(true);
+            }
+        }
+
+        static NeuralNetworkSimulator load(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() < headerBytes(1)) {
+                    throw new IllegalArgumentException("Not a model file: " + file);
+                }
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerBytes(1));
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                int version = header.getInt(4);
+                if (header.getInt(0) != MAGIC || version < 1 || version > VERSION) {
+                    throw new IllegalArgumentException("Not a version 1-" + VERSION + " model file: " + file);
+                }
+                int layerCount = header.getInt(8);
+                int optimizerCode = header.getInt(12);
+                double learningRate = header.getDouble(16);
+                int slots = header.getInt(24);
+                if (layerCount < 1 || layerCount > 1 << 16 || optimizerCode < 0
+                        || optimizerCode >= Optimizer.values().length
+                        || slots != Optimizer.values()[optimizerCode].slots) {
+                    throw new IllegalArgumentException("Unsupported model layout in " + file);
+                }
+                long dataOffset = dataOffset(version, layerCount);
+                if (channel.size() < dataOffset) {
+                    throw new IllegalArgumentException("Truncated model file: " + file);
+                }
+                header = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataOffset);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                long steps = version >= 2 ? header.getLong(32) : 0;
+                header.position(headerBytes(version));
+                int[] sizes = new int[layerCount + 1];
+                long parameters = 0;
+                for (int i = 0; i < sizes.length; i++) {
+                    sizes[i] = header.getInt();
+                    if (sizes[i] <= 0) {
+                        throw new IllegalArgumentException("Bad layer size " + sizes[i] + " in " + file);
+                    }
+                    if (i > 0) parameters += ((long) sizes[i - 1] + 1) * sizes[i];
+                }
+                StandardActivation[] activations = new StandardActivation[layerCount];
+                for (int l = 0; l < layerCount; l++) {
+                    int code = version >= 2 ? header.getInt() : StandardActivation.SIGMOID.ordinal();
+                    if (code < 0 || code >= StandardActivation.values().length) {
+                        throw new IllegalArgumentException("Unknown activation code " + code + " in " + file);
+                    }
+                    activations[l] = StandardActivation.values()[code];
+                }
+                if (channel.size() != dataOffset + 8 * parameters * (1 + slots)) {
+                    throw new IllegalArgumentException("Truncated or corrupt model file: " + file);
+                }
+
+                NeuralNetworkSimulator nn = new NeuralNetworkSimulator(sizes, false);
+                nn.learningRate = learningRate;
+                for (int l = 0; l < layerCount; l++) {
+                    nn.layers[l].activation = activations[l];
+                }
+                nn.setOptimizer(Optimizer.values()[optimizerCode]);
+                nn.optimizerSteps = steps;
+                long offset = dataOffset;
+                for (Layer layer : nn.layers) {
+                    offset = transfer(channel, offset, layer.weights, false);
+                    offset = transfer(channel, offset, layer.biases, false);
+                }
+                for (double[] state : nn.optimizerState) {
+                    offset = transfer(channel, offset, state, false);
+                }
+                return nn;
+            }
+        }
+
+        private static int headerBytes(int version) {
+            return version == 1 ? 32 : 40;
+        }
+
+        private static long dataOffset(int version, int layerCount) {
+            long sizeBytes = 4L * (layerCount + 1) + (version >= 2 ? 4L * layerCount : 0);
+            return (headerBytes(version) + sizeBytes + 7) & ~7L;
+        }
+
+        // Copies `values` to or from the doubles at `offset`, a window at a time; returns the offset after them
+        private static long transfer(FileChannel channel, long offset, double[] values, boolean write) throws IOException {
+            for (int from = 0; from < values.length; from += WINDOW_DOUBLES) {
+                int count = Math.min(WINDOW_DOUBLES, values.length - from);
+                MappedByteBuffer window = channel.map(write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                        offset + 8L * from, 8L * count);
+                DoubleBuffer doubles = window.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                if (write) {
+                    doubles.put(values, from, count);
+                } else {
+                    doubles.get(values, from, count);
+                }
+            }
+            return offset + 8L * values.length;
+        }
     }
 
-    private double sigmoidDerivative(double x) {
-        return x * (1 - x);
+    /*
+     * Double-buffered mini-batches for fit(Dataset). A daemon thread shuffles each
+     * epoch's row order and gathers batch n + 1 from the mapping into a free buffer
+     * while the caller trains on batch n; the two buffers circulate between a free
+     * and a ready queue, so steady state allocates nothing. next() returns null at the
+     * end of each epoch.
+     */
+    private static final class BatchLoader implements AutoCloseable {
+        static final class Batch {
+            final double[] inputs;
+            final double[] targets;
+            int count;
+
+            Batch(int capacity, int inputSize, int outputSize) {
+                inputs = new double[capacity * inputSize];
+                targets = new double[capacity * outputSize];
+            }
+        }
+
+        private static final Batch END_OF_EPOCH = new Batch(0, 0, 0);
+
+        private final BlockingQueue<Batch> free = new ArrayBlockingQueue<>(2);
+        private final BlockingQueue<Batch> ready = new ArrayBlockingQueue<>(3);
+        private final Thread thread;
+        private volatile Throwable failure;
+
+        BatchLoader(Dataset data, int capacity, int epochs) {
+            free.add(new Batch(capacity, data.inputSize, data.outputSize));
+            free.add(new Batch(capacity, data.inputSize, data.outputSize));
+            thread = new Thread(() -> {
+                try {
+                    int[] order = new int[data.samples];
+                    for (int i = 0; i < order.length; i++) {
+                        order[i] = i;
+                    }
+                    for (int epoch = 0; epoch < epochs; epoch++) {
+                        shuffle(order);
+                        for (int start = 0; start < order.length; start += capacity) {
+                            Batch batch = free.take();
+                            batch.count = Math.min(capacity, order.length - start);
+                            for (int r = 0; r < batch.count; r++) {
+                                data.read(order[start + r], batch.inputs, r * data.inputSize,
+                                        batch.targets, r * data.outputSize);
+                            }
+                            ready.put(batch);
+                        }
+                        ready.put(END_OF_EPOCH);
+                    }
+                } catch (InterruptedException e) {
+                    // close() during training
+                } catch (Throwable e) {
+                    failure = e;
+                    ready.offer(END_OF_EPOCH);
+                }
+            }, "batch-loader");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // The next batch of the current epoch, or null once the epoch is over
+        Batch next() {
+            Batch batch;
+            try {
+                batch = ready.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a batch", e);
+            }
+            if (failure != null) {
+                throw new IllegalStateException("Loading a batch failed", failure);
+            }
+            return batch == END_OF_EPOCH ? null : batch;
+        }
+
+        void release(Batch batch) {
+            free.add(batch);
+        }
+
+        @Override
+        public void close() {
+            thread.interrupt();
+        }
     }
 
-    // Forward propagation
-    private double[] feedForward(double[] inputs) {
-        double[] hiddenLayerOutputs = new double[HIDDEN_NEURONS];
+    /*
+     * int8 dot product for QuantizedModel. HotSpot does not vectorize a byte multiply
+     * reduction by itself, so NeuralNetworkVectorKernel.dotInt8 is bound when present,
+     * like FloatKernel's kernels; otherwise the plain loop runs.
+     */
+    private static final class Int8Kernel {
+        private static final MethodHandle DOT;
 
-        for (int j = 0; j < HIDDEN_NEURONS; j++) {
-            double activation = biasHidden[j];
-            for (int i = 0; i < INPUT_NEURONS; i++) {
-                activation += inputs[i] * weightsInputHidden[i][j];
+        static {
+            MethodHandle dot = null;
+            try {
+                Class<?> kernel = Class.forName("NeuralNetworkVectorKernel");
+                dot = MethodHandles.publicLookup().findStatic(kernel, "dotInt8", MethodType.methodType(int.class,
+                        byte[].class, int.class, byte[].class, int.class, int.class));
+            } catch (Throwable e) {
+                // Not compiled, or the incubator module was not added: use the loop below
             }
-            hiddenLayerOutputs[j] = sigmoid(activation);
+            DOT = dot;
         }
 
-        double outputActivation = biasOutput;
-        for (int j = 0; j < HIDDEN_NEURONS; j++) {
-            outputActivation += hiddenLayerOutputs[j] * weightsHiddenOutput[j];
+        static boolean isVectorized() {
+            return DOT != null;
+        }
+
+        static int dot(byte[] a, int aOff, byte[] b, int bOff, int count) {
+            if (DOT != null) {
+                try {
+                    return (int) DOT.invokeExact(a, aOff, b, bOff, count);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Vector kernel failed", e);
+                }
+            }
+            int sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += a[aOff + i] * b[bOff + i];
+            }
+            return sum;
         }
-        double output = sigmoid(outputActivation);
+    }
 
-        return new double[] {output, hiddenLayerOutputs[0], hiddenLayerOutputs[1]};
+    // Post-training int8 copy of the current weights; see QuantizedModel
+    public QuantizedModel quantize() {
+        return new QuantizedModel(layers);
     }
 
-    // Training with backpropagation
-    private void train(double[] inputs, double targetOutput) {
-        double[] forwardResult = feedForward(inputs);
-        double output = forwardResult[0];
-        double[] hiddenOutputs = {forwardResult[1], forwardResult[2]};
+    /*
+     * int8 inference model made from a trained network. Each layer's weights are
+     * quantized symmetrically with one scale per layer, w ~ scale * q with q in
+     * [-127, 127], and stored outputs x inputs so every output neuron's weights are
+     * contiguous. At run time each row's inputs to a layer are quantized the same way
+     * with their own scale, the dot products accumulate in int32, and one multiply by
+     * both scales plus the double bias dequantizes the sum before the activation. The
+     * weights take an eighth of the doubles' space.
+     *
+     * Rows run one at a time through per-thread scratch buffers, so like
+     * InferenceSession it is garbage-free after a thread's first call and safe to use
+     * from many threads.
+     */
+    public static final class QuantizedModel {
+        // 127 * 127 * inputs must fit an int accumulator
+        private static final int MAX_INPUTS = Integer.MAX_VALUE / (127 * 127);
+
+        private final int[] sizes;
+        private final byte[][] weights;
+        private final double[] weightScales;
+        private final double[][] biases;
+        private final Activation[] activations;
+        private final ThreadLocal<Scratch> scratch;
+
+        private static final class Scratch {
+            final byte[] quantized;
+            final double[][] outputs;
 
-        // Calculate output error
-        double outputError = targetOutput - output;
-        double outputDelta = outputError * sigmoidDerivative(output);
+            Scratch(int[] sizes) {
+                quantized = new byte[Arrays.stream(sizes).max().getAsInt()];
+                outputs = new double[sizes.length - 1][];
+                for (int l = 0; l < outputs.length; l++) {
+                    outputs[l] = new double[sizes[l + 1]];
+                }
+            }
+        }
 
-        // Calculate hidden layer errors and deltas
-        double[] hiddenErrors = new double[HIDDEN_NEURONS];
-        double[] hiddenDeltas = new double[HIDDEN_NEURONS];
+        private QuantizedModel(Layer[] layers) {
+            sizes = new int[layers.length + 1];
+            sizes[0] = layers[0].inputs;
+            weights = new byte[layers.length][];
+            weightScales = new double[layers.length];
+            biases = new double[layers.length][];
+            activations = new Activation[layers.length];
+            for (int l = 0; l < layers.length; l++) {
+                Layer layer = layers[l];
+                if (layer.inputs > MAX_INPUTS) {
+                    throw new IllegalArgumentException("Layers wider than " + MAX_INPUTS + " inputs cannot be quantized");
+                }
+                sizes[l + 1] = layer.outputs;
+                double largest = 0;
+                for (double w : layer.weights) {
+                    largest = Math.max(largest, Math.abs(w));
+                }
+                double scale = largest == 0 ? 1 : largest / 127;
+                byte[] q = new byte[layer.weights.length];
+                for (int i = 0; i < layer.inputs; i++) {
+                    for (int j = 0; j < layer.outputs; j++) {
+                        q[j * layer.inputs + i] = (byte) Math.round(layer.weights[i * layer.outputs + j] / scale);
+                    }
+                }
+                weights[l] = q;
+                weightScales[l] = scale;
+                biases[l] = layer.biases.clone();
+                activations[l] = layer.activation;
+            }
+            scratch = ThreadLocal.withInitial(() -> new Scratch(sizes));
+        }
 
-        for (int j = 0; j < HIDDEN_NEURONS; j++) {
-            hiddenErrors[j] = outputDelta * weightsHiddenOutput[j];
-            hiddenDeltas[j] = hiddenErrors[j] * sigmoidDerivative(hiddenOutputs[j]);
+        // Bytes held by the weights, scales and biases
+        public long bytes() {
+            long bytes = 0;
+            for (int l = 0; l < weights.length; l++) {
+                bytes += weights[l].length + 8 + 8L * biases[l].length;
+            }
+            return bytes;
         }
 
-        // Update weights Hidden -> Output
-        for (int j = 0; j < HIDDEN_NEURONS; j++) {
-            weightsHiddenOutput[j] += LEARNING_RATE * outputDelta * hiddenOutputs[j];
+        // Same contract as InferenceSession.predictBatch
+        public void predictBatch(double[] inputs, int rows, double[] out) {
+            int in = sizes[0];
+            int outputs = sizes[sizes.length - 1];
+            if (rows < 0 || inputs.length < rows * in || out.length < rows * outputs) {
+                throw new IllegalArgumentException("Arrays too small for " + rows + " rows");
+            }
+            Scratch s = scratch.get();
+            double[] result = s.outputs[weights.length - 1];
+            for (int r = 0; r < rows; r++) {
+                double[] x = inputs;
+                int offset = r * in;
+                for (int l = 0; l < weights.length; l++) {
+                    double[] z = s.outputs[l];
+                    layer(l, x, offset, s.quantized, z);
+                    x = z;
+                    offset = 0;
+                }
+                System.arraycopy(result, 0, out, r * outputs, outputs);
+            }
         }
-        biasOutput += LEARNING_RATE * outputDelta;
 
-        // Update weights Input -> Hidden
-        for (int i = 0; i < INPUT_NEURONS; i++) {
-            for (int j = 0; j < HIDDEN_NEURONS; j++) {
-                weightsInputHidden[i][j] += LEARNING_RATE * hiddenDeltas[j] * inputs[i];
+        // z = activation(W x + b) for the row of layer l's inputs at x[offset..]
+        private void layer(int l, double[] x, int offset, byte[] q, double[] z) {
+            int in = sizes[l];
+            double largest = 0;
+            for (int i = 0; i < in; i++) {
+                largest = Math.max(largest, Math.abs(x[offset + i]));
             }
+            double inputScale = largest == 0 ? 1 : largest / 127;
+            for (int i = 0; i < in; i++) {
+                q[i] = (byte) Math.round(x[offset + i] / inputScale);
+            }
+            byte[] w = weights[l];
+            double dequantize = inputScale * weightScales[l];
+            double[] bias = biases[l];
+            for (int j = 0; j < z.length; j++) {
+                z[j] = Int8Kernel.dot(q, 0, w, j * in, in) * dequantize + bias[j];
+            }
+            activations[l].apply(z, z.length);
         }
-        for (int j = 0; j < HIDDEN_NEURONS; j++) {
-            biasHidden[j] += LEARNING_RATE * hiddenDeltas[j];
+    }
+
+    // Forward propagation of a single sample; returns the output layer
+    private double[] feedForward(double[] inputs) {
+        if (sampleWorkspace == null) {
+            sampleWorkspace = new Workspace(layers, 1);
         }
+        forward(inputs, 1, sampleWorkspace);
+        return Arrays.copyOf(sampleWorkspace.outputs[layers.length - 1], outputSize());
     }
 
     private void printWeights() {
-        System.out.println("Weights Input-Hidden:");
-        for (int i = 0; i < INPUT_NEURONS; i++) {
-            for (int j = 0; j < HIDDEN_NEURONS; j++) {
-                System.out.printf("% .4f ", weightsInputHidden[i][j]);
+        for (int l = 0; l < layers.length; l++) {
+            Layer layer = layers[l];
+            System.out.printf("Weights layer %d (%d x %d):%n", l + 1, layer.inputs, layer.outputs);
+            for (int i = 0; i < layer.inputs; i++) {
+                for (int j = 0; j < layer.outputs; j++) {
+                    System.out.printf("% .4f ", layer.weights[i * layer.outputs + j]);
+                }
+                System.out.println();
             }
-            System.out.println();
         }
-        System.out.println("Weights Hidden-Output:");
-        for (int j = 0; j < HIDDEN_NEURONS; j++) {
-            System.out.printf("% .4f ", weightsHiddenOutput[j]);
-        }
-        System.out.println();
         System.out.println();
     }
 
+    private static void printUsage() {
+        System.out.println("Usage: java main.java [hidden layer sizes... | --bench-train [options] | --bench-infer [options]");
+        System.out.println("                       | --check-float [options] | --train [options] | --model FILE");
+        System.out.println("                       | --bench-converge [options] | --quantize --model FILE [options]]");
+        System.out.println("  hidden layer sizes  e.g. \"8 8\" trains a 2-8-8-1 net on XOR (default 2-2-1)");
+        System.out.println("Training benchmark options:");
+        System.out.println("  --layers A,B,...    layer sizes from input to output (default 784,256,10)");
+        System.out.println("  --samples N         synthetic training rows (default 4096)");
+        System.out.println("  --batch N           mini-batch size (default 256)");
+        System.out.println("  --epochs N          measured epochs per thread count (default 2)");
+        System.out.println("  --threads A,B,...   thread counts (default 1, 2, 4, ... up to all cores)");
+        System.out.println("  --density D         fraction of non-zero inputs (default 1)");
+        System.out.println("  --hogwild           lock-free updates instead of reduced gradients");
+        System.out.println("Inference benchmark options:");
+        System.out.println("  --layers A,B,...    layer sizes from input to output (default 784,256,10)");
+        System.out.println("  --rows N            rows per predictBatch call (default 64)");
+        System.out.println("  --calls N           measured calls per thread (default 2000)");
+        System.out.println("  --threads A,B,...   thread counts (default 1, 2, 4, ... up to all cores)");
+        System.out.println("Float32 check options (add --add-modules jdk.incubator.vector for the SIMD kernels):");
+        System.out.println("  --layers A,B,...    layer sizes from input to output (default 784,256,10)");
+        System.out.println("  --batch N           rows in the compared batch (default 128)");
+        System.out.println("  --steps N           timed training steps per precision (default 20)");
+        System.out.println("Training options (data is memory-mapped, not loaded):");
+        System.out.println("  --images FILE       IDX (MNIST format) inputs, with --labels FILE for the classes");
+        System.out.println("  --raw FILE          little-endian float32 rows of inputs then targets, with");
+        System.out.println("                      --inputs N and --outputs N giving the row layout");
+        System.out.println("  --hidden A,B,...    hidden layer sizes (default 64)");
+        System.out.println("  --epochs N          passes over the data (default 5)");
+        System.out.println("  --batch N           mini-batch size (default 32)");
+        System.out.println("  --rate R            learning rate (default " + LEARNING_RATE + ")");
+        System.out.println("  --float32           train on the float32 backend");
+        System.out.println("  --activation NAME   hidden activation: sigmoid, fast-sigmoid, tanh, fast-tanh, relu,");
+        System.out.println("                      leaky-relu (default sigmoid)");
+        System.out.println("  --output-activation NAME  output activation (default sigmoid)");
+        System.out.println("  --optimizer NAME    sgd, momentum, rmsprop or adam (default sgd)");
+        System.out.println("  --save FILE         write the trained model (load it back with --model FILE)");
+        System.out.println("  --model FILE        time loading a saved model and print its layout");
+        System.out.println("Convergence benchmark options (XOR, sigmoid output):");
+        System.out.println("  --hidden A,B,...    hidden layer sizes (default 8)");
+        System.out.println("  --activations A,... hidden activations to compare (default all)");
+        System.out.println("  --optimizers A,...  optimizers to compare (default all)");
+        System.out.println("  --rate R            learning rate for every optimizer (default 0.5 for sgd,");
+        System.out.println("                      0.05 for momentum, 0.01 for rmsprop and adam)");
+        System.out.println("  --target LOSS       mean squared error to reach (default 0.01)");
+        System.out.println("  --max-epochs N      give up after N epochs (default 20000)");
+        System.out.println("  --batch N           mini-batch size (default 4, full batch)");
+        System.out.println("  --runs N            runs per configuration, reported as medians (default 5)");
+        System.out.println("Quantization report options (compares int8 against the double model):");
+        System.out.println("  --model FILE        saved model to quantize");
+        System.out.println("  --images/--labels, --raw/--inputs/--outputs  dataset to compare on, as for --train");
+        System.out.println("  --samples N         rows to compare (default all, or 2000 random rows without data)");
+    }
+
+    /*
+     * Measures fitParallel() samples/s for each thread count on synthetic data: inputs
+     * are uniform in [-1, 1) with the given density and targets are one-hot labels taken from the
+     * argmax of a randomly initialised teacher network of the same shape. Every thread
+     * count trains a fresh network after one discarded warmup epoch.
+     */
+    private static void runTrainBenchmark(String[] args) {
+        int[] sizes = {784, 256, 10};
+        int samples = 4096;
+        int batchSize = 256;
+        int epochs = 2;
+        int[] threadCounts = defaultThreadCounts();
+        double density = 1;
+        boolean hogwild = false;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--hogwild")) {
+                hogwild = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--layers":
+                    sizes = parseIntList(value);
+                    break;
+                case "--samples":
+                    samples = Integer.parseInt(value);
+                    break;
+                case "--batch":
+                    batchSize = Integer.parseInt(value);
+                    break;
+                case "--epochs":
+                    epochs = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    threadCounts = parseIntList(value);
+                    break;
+                case "--density":
+                    density = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (sizes.length < 2 || samples <= 0 || batchSize <= 0 || epochs <= 0 || density <= 0 || density > 1) {
+            throw new IllegalArgumentException("Benchmark needs two or more layers, positive counts and 0 < density <= 1");
+        }
+
+        int in = sizes[0];
+        int out = sizes[sizes.length - 1];
+        double[] inputs = new double[samples * in];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = random.nextDouble() < density ? 2 * random.nextDouble() - 1 : 0;
+        }
+        double[] targets = new double[samples * out];
+        NeuralNetworkSimulator teacher = new NeuralNetworkSimulator(sizes);
+        Workspace teacherWs = new Workspace(teacher.layers, 1);
+        for (int r = 0; r < samples; r++) {
+            teacher.forward(Arrays.copyOfRange(inputs, r * in, (r + 1) * in), 1, teacherWs);
+            double[] prediction = teacherWs.outputs[sizes.length - 2];
+            int best = 0;
+            for (int j = 1; j < out; j++) {
+                if (prediction[j] > prediction[best]) best = j;
+            }
+            targets[r * out + best] = 1;
+        }
+
+        System.out.printf("Training %s on %d samples, batch %d, density %.3f, %s%n", Arrays.toString(sizes), samples,
+                batchSize, density, hogwild ? "hogwild" : "synchronous");
+        System.out.printf("%7s %14s %9s %12s%n", "threads", "samples/s", "speedup", "loss");
+        double baseRate = 0;
+        for (int threads : threadCounts) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                NeuralNetworkSimulator nn = new NeuralNetworkSimulator(sizes);
+                nn.fitParallel(inputs, targets, samples, 1, batchSize, pool, hogwild);
+                long start = System.nanoTime();
+                double loss = nn.fitParallel(inputs, targets, samples, epochs, batchSize, pool, hogwild);
+                double rate = (double) samples * epochs / ((System.nanoTime() - start) / 1e9);
+                if (baseRate == 0) baseRate = rate;
+                System.out.printf("%7d %14.1f %8.2fx %12.6f%n", threads, rate, rate / baseRate, loss);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /*
+     * Measures predictBatch() throughput from 1..N threads sharing one session. Every
+     * thread warms its workspace and the JIT up first, then makes `calls` measured
+     * calls; the report includes the collections run during the measurement and, where
+     * the JVM can tell, the bytes a single call allocated.
+     */
+    private static void runInferenceBenchmark(String[] args) throws InterruptedException {
+        int[] sizes = {784, 256, 10};
+        int rows = 64;
+        int calls = 2000;
+        int[] threadCounts = defaultThreadCounts();
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--layers":
+                    sizes = parseIntList(value);
+                    break;
+                case "--rows":
+                    rows = Integer.parseInt(value);
+                    break;
+                case "--calls":
+                    calls = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    threadCounts = parseIntList(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (sizes.length < 2 || rows <= 0 || calls <= 0) {
+            throw new IllegalArgumentException("Benchmark needs two or more layers and positive counts");
+        }
+
+        NeuralNetworkSimulator nn = new NeuralNetworkSimulator(sizes);
+        InferenceSession session = nn.newInferenceSession(rows);
+        double[] inputs = new double[rows * nn.inputSize()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = random.nextDouble() * 2 - 1;
+        }
+        System.out.printf("Predicting %s, %d rows per call, %d calls per thread, %s bytes per call%n",
+                Arrays.toString(sizes), rows, calls, allocatedPerCall(session, inputs, rows, nn.outputSize()));
+        System.out.printf("%7s %14s %14s %9s %6s%n", "threads", "rows/s", "us/call", "speedup", "GCs");
+        int batch = rows;
+        int measured = calls;
+        double baseRate = 0;
+        for (int threads : threadCounts) {
+            int warmupCalls = Math.max(1, calls / 10);
+            AtomicLong busyNanos = new AtomicLong();
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    double[] out = new double[batch * nn.outputSize()];
+                    for (int c = 0; c < warmupCalls; c++) {
+                        session.predictBatch(inputs, batch, out);
+                    }
+                    long start = System.nanoTime();
+                    for (int c = 0; c < measured; c++) {
+                        session.predictBatch(inputs, batch, out);
+                    }
+                    busyNanos.addAndGet(System.nanoTime() - start);
+                });
+            }
+            long collections = gcCount();
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            collections = gcCount() - collections;
+            // Warmup runs inside the wall time, so the rate uses each thread's measured span
+            double rate = (double) rows * calls * threads / (busyNanos.get() / 1e9 / threads);
+            if (baseRate == 0) baseRate = rate;
+            System.out.printf("%7d %14.0f %14.2f %8.2fx %6d   (%.1f s)%n", threads, rate,
+                    busyNanos.get() / 1e3 / threads / calls, rate / baseRate, collections, seconds);
+        }
+    }
+
+    /*
+     * Agreement test and speed comparison of the two precisions. One random batch goes
+     * through forward and backward in double and in float32 from identical weights;
+     * outputs must agree to 1e-4 and every layer's gradients to 1e-3 of that layer's
+     * largest gradient, which float rounding over a few thousand terms stays well
+     * inside. Then each precision times `steps` full training steps on the batch.
+     * Exits with status 1 when the precisions disagree.
+     */
+    private static void runFloatCheck(String[] args) {
+        int[] sizes = {784, 256, 10};
+        int batch = 128;
+        int steps = 20;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--layers":
+                    sizes = parseIntList(value);
+                    break;
+                case "--batch":
+                    batch = Integer.parseInt(value);
+                    break;
+                case "--steps":
+                    steps = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (sizes.length < 2 || batch <= 0 || steps <= 0) {
+            throw new IllegalArgumentException("Check needs two or more layers and positive counts");
+        }
+
+        NeuralNetworkSimulator nn = new NeuralNetworkSimulator(sizes);
+        int in = nn.inputSize();
+        int out = nn.outputSize();
+        double[] inputs = new double[batch * in];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = random.nextDouble() * 2 - 1;
+        }
+        double[] targets = new double[batch * out];
+        for (int r = 0; r < batch; r++) {
+            targets[r * out + random.nextInt(out)] = 1;
+        }
+        int[] order = new int[batch];
+        for (int i = 0; i < batch; i++) {
+            order[i] = i;
+        }
+
+        // Both precisions start from the float-rounded weights, so only the arithmetic differs
+        NeuralNetworkSimulator.FloatTrainer trainer = nn.new FloatTrainer(batch);
+        trainer.store();
+        Workspace ws = new Workspace(nn.layers, batch);
+        nn.computeGradients(inputs, targets, order, 0, batch, ws);
+        trainer.gather(inputs, targets, order, 0, batch);
+        trainer.forward(batch);
+        trainer.backward(batch);
+
+        System.out.printf("Network %s, batch %d, float32 kernels: %s%n", Arrays.toString(sizes), batch,
+                FloatKernel.describe());
+        int last = nn.layers.length - 1;
+        double outputError = 0;
+        for (int i = 0; i < batch * out; i++) {
+            outputError = Math.max(outputError, Math.abs(ws.outputs[last][i] - trainer.outputs[last][i]));
+        }
+        boolean ok = outputError <= 1e-4;
+        System.out.printf("  outputs            max abs error %.3e%n", outputError);
+        for (int l = 0; l <= last; l++) {
+            double largest = 0;
+            double error = 0;
+            for (int i = 0; i < ws.weightGrads[l].length; i++) {
+                largest = Math.max(largest, Math.abs(ws.weightGrads[l][i]));
+                error = Math.max(error, Math.abs(ws.weightGrads[l][i] - trainer.weightGrads[l][i]));
+            }
+            for (int j = 0; j < ws.biasGrads[l].length; j++) {
+                largest = Math.max(largest, Math.abs(ws.biasGrads[l][j]));
+                error = Math.max(error, Math.abs(ws.biasGrads[l][j] - trainer.biasGrads[l][j]));
+            }
+            double relative = largest == 0 ? error : error / largest;
+            ok &= relative <= 1e-3;
+            System.out.printf("  layer %d gradients  max rel error %.3e%n", l + 1, relative);
+        }
+        System.out.println(ok ? "Precisions agree" : "Precisions DISAGREE");
+
+        double[] seconds = new double[2];
+        for (int round = 0; round < 2; round++) { // the first round warms the JIT up
+            long start = System.nanoTime();
+            for (int step = 0; step < steps; step++) {
+                nn.computeGradients(inputs, targets, order, 0, batch, ws);
+                nn.applyGradients(ws, batch);
+            }
+            seconds[0] = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            for (int step = 0; step < steps; step++) {
+                trainer.forward(batch);
+                trainer.backward(batch);
+                trainer.apply(batch);
+            }
+            seconds[1] = (System.nanoTime() - start) / 1e9;
+        }
+        System.out.printf("  double  %8.2f ms/step%n", seconds[0] * 1e3 / steps);
+        System.out.printf("  float32 %8.2f ms/step (%.2fx)%n", seconds[1] * 1e3 / steps, seconds[0] / seconds[1]);
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    // Trains on an IDX or raw dataset, reporting loss and throughput per epoch, then accuracy
+    private static void runTraining(String[] args) throws IOException {
+        Path images = null;
+        Path labels = null;
+        Path raw = null;
+        int inputs = 0;
+        int outputs = 0;
+        int[] hidden = {64};
+        int epochs = 5;
+        int batchSize = 32;
+        double rate = LEARNING_RATE;
+        boolean float32 = false;
+        Path save = null;
+        Activation hiddenActivation = StandardActivation.SIGMOID;
+        Activation outputActivation = StandardActivation.SIGMOID;
+        Optimizer optimizer = Optimizer.SGD;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--float32")) {
+                float32 = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--images":
+                    images = Paths.get(value);
+                    break;
+                case "--labels":
+                    labels = Paths.get(value);
+                    break;
+                case "--raw":
+                    raw = Paths.get(value);
+                    break;
+                case "--inputs":
+                    inputs = Integer.parseInt(value);
+                    break;
+                case "--outputs":
+                    outputs = Integer.parseInt(value);
+                    break;
+                case "--hidden":
+                    hidden = parseIntList(value);
+                    break;
+                case "--epochs":
+                    epochs = Integer.parseInt(value);
+                    break;
+                case "--batch":
+                    batchSize = Integer.parseInt(value);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--save":
+                    save = Paths.get(value);
+                    break;
+                case "--activation":
+                    hiddenActivation = StandardActivation.parse(value);
+                    break;
+                case "--output-activation":
+                    outputActivation = StandardActivation.parse(value);
+                    break;
+                case "--optimizer":
+                    optimizer = Optimizer.parse(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if ((images == null || labels == null) == (raw == null)) {
+            throw new IllegalArgumentException("Give either --images and --labels, or --raw");
+        }
+        if (epochs <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("Training needs positive epochs and batch size");
+        }
+
+        long opened = System.nanoTime();
+        Dataset data = raw != null ? Dataset.openRaw(raw, inputs, outputs) : Dataset.openIdx(images, labels);
+        System.out.printf("Mapped %d samples (%d inputs, %d outputs) in %.1f ms%n", data.samples, data.inputSize,
+                data.outputSize, (System.nanoTime() - opened) / 1e6);
+        if (data.samples == 0) {
+            return;
+        }
+        int[] sizes = new int[hidden.length + 2];
+        sizes[0] = data.inputSize;
+        System.arraycopy(hidden, 0, sizes, 1, hidden.length);
+        sizes[sizes.length - 1] = data.outputSize;
+        NeuralNetworkSimulator nn = new NeuralNetworkSimulator(sizes);
+        nn.setLearningRate(rate);
+        nn.setPrecision(float32 ? Precision.FLOAT32 : Precision.DOUBLE);
+        nn.setActivations(hiddenActivation, outputActivation);
+        nn.setOptimizer(optimizer);
+
+        System.out.println("Training " + Arrays.toString(sizes) + (float32 ? " in float32" : ""));
+        for (int epoch = 1; epoch <= epochs; epoch++) {
+            long start = System.nanoTime();
+            double loss = nn.fit(data, 1, batchSize);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("  epoch %3d  loss %.6f  %.0f samples/s%n", epoch, loss, data.samples / seconds);
+        }
+        System.out.printf("Training accuracy %.2f%%%n", 100 * nn.accuracy(data));
+        if (save != null) {
+            nn.save(save);
+            System.out.println("Saved model to " + save);
+        }
+    }
+
+    /*
+     * Wall-clock time to a target loss on XOR for every hidden activation x optimizer
+     * pair. Each run trains a fresh network, checking the loss every 10 epochs, after
+     * one discarded warmup run per pair. The report gives how many runs got there and
+     * the median epochs and milliseconds of those that did.
+     */
+    private static void runConvergenceBenchmark(String[] args) {
+        int[] hidden = {8};
+        StandardActivation[] activations = StandardActivation.values();
+        Optimizer[] optimizers = Optimizer.values();
+        double rate = 0;
+        double target = 0.01;
+        int maxEpochs = 20000;
+        int batchSize = 4;
+        int runs = 5;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--hidden":
+                    hidden = parseIntList(value);
+                    break;
+                case "--activations":
+                    activations = Arrays.stream(value.split(",")).map(StandardActivation::parse)
+                            .toArray(StandardActivation[]::new);
+                    break;
+                case "--optimizers":
+                    optimizers = Arrays.stream(value.split(",")).map(Optimizer::parse).toArray(Optimizer[]::new);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--target":
+                    target = Double.parseDouble(value);
+                    break;
+                case "--max-epochs":
+                    maxEpochs = Integer.parseInt(value);
+                    break;
+                case "--batch":
+                    batchSize = Integer.parseInt(value);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (target <= 0 || maxEpochs <= 0 || batchSize <= 0 || runs <= 0) {
+            throw new IllegalArgumentException("Benchmark needs a positive target, epoch limit, batch and run count");
+        }
+
+        int[] sizes = new int[hidden.length + 2];
+        sizes[0] = 2;
+        System.arraycopy(hidden, 0, sizes, 1, hidden.length);
+        sizes[sizes.length - 1] = 1;
+        double[] inputs = {0, 0, 0, 1, 1, 0, 1, 1};
+        double[] targets = {0, 1, 1, 0};
+        int checkEvery = 10;
+
+        System.out.printf("XOR %s to loss %s, batch %d, %d runs each%n", Arrays.toString(sizes), target, batchSize, runs);
+        System.out.printf("%-12s %-9s %7s %8s %9s %10s%n", "activation", "optimizer", "rate", "reached", "epochs", "ms");
+        for (StandardActivation activation : activations) {
+            for (Optimizer optimizer : optimizers) {
+                double configRate = rate > 0 ? rate : defaultRate(optimizer);
+                List<Integer> epochs = new ArrayList<>();
+                List<Double> millis = new ArrayList<>();
+                for (int run = -1; run < runs; run++) { // run -1 warms the JIT up for this pair
+                    NeuralNetworkSimulator nn = new NeuralNetworkSimulator(sizes);
+                    nn.setActivations(activation, StandardActivation.SIGMOID);
+                    nn.setOptimizer(optimizer);
+                    nn.setLearningRate(configRate);
+                    long start = System.nanoTime();
+                    for (int epoch = checkEvery; epoch <= maxEpochs; epoch += checkEvery) {
+                        if (nn.fit(inputs, targets, 4, checkEvery, batchSize) <= target) {
+                            if (run < 0) break;
+                            millis.add((System.nanoTime() - start) / 1e6);
+                            epochs.add(epoch);
+                            break;
+                        }
+                    }
+                }
+                String name = activation.toString().toLowerCase().replace('_', '-');
+                if (epochs.isEmpty()) {
+                    System.out.printf("%-12s %-9s %7s %5d/%-2d %9s %10s%n", name, optimizer.toString().toLowerCase(),
+                            configRate, 0, runs, "-", "-");
+                    continue;
+                }
+                epochs.sort(null);
+                millis.sort(null);
+                System.out.printf("%-12s %-9s %7s %5d/%-2d %9d %10.2f%n", name, optimizer.toString().toLowerCase(),
+                        configRate, epochs.size(), runs, epochs.get(epochs.size() / 2), millis.get(millis.size() / 2));
+            }
+        }
+    }
+
+    private static double defaultRate(Optimizer optimizer) {
+        switch (optimizer) {
+            case SGD:
+                return LEARNING_RATE;
+            case MOMENTUM:
+                return 0.05;
+            default:
+                return 0.01;
+        }
+    }
+
+    /*
+     * Quantizes a saved model and compares the int8 path against the double one on a
+     * dataset, or on uniform random inputs in [0, 1) without one: output error, how
+     * often both pick the same top output, accuracy when there are targets, model size
+     * and rows/s.
+     */
+    private static void runQuantizationReport(String[] args) throws IOException {
+        Path model = null;
+        Path images = null;
+        Path labels = null;
+        Path raw = null;
+        int inputs = 0;
+        int outputs = 0;
+        int samples = -1;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--model":
+                    model = Paths.get(value);
+                    break;
+                case "--images":
+                    images = Paths.get(value);
+                    break;
+                case "--labels":
+                    labels = Paths.get(value);
+                    break;
+                case "--raw":
+                    raw = Paths.get(value);
+                    break;
+                case "--inputs":
+                    inputs = Integer.parseInt(value);
+                    break;
+                case "--outputs":
+                    outputs = Integer.parseInt(value);
+                    break;
+                case "--samples":
+                    samples = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (model == null) {
+            throw new IllegalArgumentException("--quantize needs --model");
+        }
+        if ((images == null) != (labels == null) || (images != null && raw != null)) {
+            throw new IllegalArgumentException("Give --images with --labels, or --raw, or neither");
+        }
+
+        NeuralNetworkSimulator nn = load(model);
+        Dataset data = raw != null ? Dataset.openRaw(raw, inputs, outputs)
+                : images != null ? Dataset.openIdx(images, labels) : null;
+        if (data != null && (data.inputSize != nn.inputSize() || data.outputSize != nn.outputSize())) {
+            throw new IllegalArgumentException("Dataset does not match the model");
+        }
+        int rows = data == null ? (samples < 0 ? 2000 : samples) : (samples < 0 ? data.samples : Math.min(samples, data.samples));
+        int in = nn.inputSize();
+        int out = nn.outputSize();
+        double[] x = new double[rows * in];
+        double[] target = new double[rows * out];
+        for (int r = 0; r < rows; r++) {
+            if (data != null) {
+                data.read(r, x, r * in, target, r * out);
+            } else {
+                for (int i = 0; i < in; i++) {
+                    x[r * in + i] = random.nextDouble();
+                }
+            }
+        }
+
+        long quantizeStart = System.nanoTime();
+        QuantizedModel quantized = nn.quantize();
+        double quantizeMillis = (System.nanoTime() - quantizeStart) / 1e6;
+        InferenceSession session = nn.newInferenceSession(256);
+        double[] exact = new double[rows * out];
+        double[] approx = new double[rows * out];
+        double[] seconds = new double[2];
+        for (int round = 0; round < 3; round++) { // the first rounds warm the JIT up
+            long start = System.nanoTime();
+            session.predictBatch(x, rows, exact);
+            seconds[0] = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            quantized.predictBatch(x, rows, approx);
+            seconds[1] = (System.nanoTime() - start) / 1e9;
+        }
+
+        double maxError = 0;
+        double sumError = 0;
+        int agree = 0;
+        int exactCorrect = 0;
+        int approxCorrect = 0;
+        for (int r = 0; r < rows; r++) {
+            int o = r * out;
+            for (int j = 0; j < out; j++) {
+                double error = Math.abs(exact[o + j] - approx[o + j]);
+                maxError = Math.max(maxError, error);
+                sumError += error;
+            }
+            int e = out == 1 ? (exact[o] >= 0.5 ? 1 : 0) : argmax(exact, o, out);
+            int a = out == 1 ? (approx[o] >= 0.5 ? 1 : 0) : argmax(approx, o, out);
+            int t = out == 1 ? (target[o] >= 0.5 ? 1 : 0) : argmax(target, o, out);
+            if (e == a) agree++;
+            if (e == t) exactCorrect++;
+            if (a == t) approxCorrect++;
+        }
+
+        long doubleBytes = 0;
+        for (Layer layer : nn.layers) {
+            doubleBytes += 8L * (layer.weights.length + layer.biases.length);
+        }
+        System.out.printf("Model %s, quantized in %.2f ms, int8 dot products on %s%n", Arrays.toString(nn.sizes()),
+                quantizeMillis, Int8Kernel.isVectorized() ? "the Vector API" : "scalar loops");
+        System.out.printf("  size          double %d bytes, int8 %d bytes (%.1fx smaller)%n", doubleBytes,
+                quantized.bytes(), (double) doubleBytes / quantized.bytes());
+        System.out.printf("  outputs       max abs error %.3e, mean %.3e over %d rows%n", maxError,
+                sumError / Math.max(1, rows * out), rows);
+        System.out.printf("  top output    same in %.2f%% of rows%n", 100.0 * agree / Math.max(1, rows));
+        if (data != null) {
+            System.out.printf("  accuracy      double %.2f%%, int8 %.2f%%%n", 100.0 * exactCorrect / Math.max(1, rows),
+                    100.0 * approxCorrect / Math.max(1, rows));
+        }
+        System.out.printf("  throughput    double %.0f rows/s, int8 %.0f rows/s%n", rows / seconds[0], rows / seconds[1]);
+    }
+
+    private static void inspectModel(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("--model takes exactly one file");
+        }
+        long start = System.nanoTime();
+        NeuralNetworkSimulator nn = load(Paths.get(args[1]));
+        double millis = (System.nanoTime() - start) / 1e6;
+        long parameters = 0;
+        for (Layer layer : nn.layers) {
+            parameters += layer.weights.length + layer.biases.length;
+        }
+        String[] activations = new String[nn.layers.length];
+        for (int l = 0; l < activations.length; l++) {
+            activations[l] = nn.layers[l].activation.toString().toLowerCase();
+        }
+        System.out.printf("Loaded %s: %d parameters in %.2f ms%n", Arrays.toString(nn.sizes()), parameters, millis);
+        System.out.printf("Activations %s, %s at rate %s after %d steps%n", Arrays.toString(activations),
+                nn.optimizer.toString().toLowerCase(), nn.learningRate, nn.optimizerSteps);
+    }
+
+    /*
+     * Fraction of samples whose largest output is at the target's largest entry, read
+     * from the mapping in sequential chunks; a single output counts as 0/1 at 0.5.
+     */
+    private double accuracy(Dataset data) {
+        int chunk = 256;
+        InferenceSession session = newInferenceSession(chunk);
+        double[] in = new double[chunk * data.inputSize];
+        double[] target = new double[chunk * data.outputSize];
+        double[] out = new double[chunk * data.outputSize];
+        long correct = 0;
+        for (int start = 0; start < data.samples; start += chunk) {
+            int count = Math.min(chunk, data.samples - start);
+            for (int r = 0; r < count; r++) {
+                data.read(start + r, in, r * data.inputSize, target, r * data.outputSize);
+            }
+            session.predictBatch(in, count, out);
+            for (int r = 0; r < count; r++) {
+                int o = r * data.outputSize;
+                if (data.outputSize == 1) {
+                    if ((out[o] >= 0.5) == (target[o] >= 0.5)) correct++;
+                } else if (argmax(out, o, data.outputSize) == argmax(target, o, data.outputSize)) {
+                    correct++;
+                }
+            }
+        }
+        return (double) correct / data.samples;
+    }
+
+    private static int argmax(double[] values, int off, int count) {
+        int best = 0;
+        for (int j = 1; j < count; j++) {
+            if (values[off + j] > values[off + best]) best = j;
+        }
+        return best;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /*
+     * Bytes allocated by one steady-state predictBatch call on this thread, or "unknown"
+     * without HotSpot's counter. Until the JIT has compiled the call path and escape
+     * analysis has removed its temporaries, interpreted and C1 code allocate, so the
+     * session is warmed up for a second and then measured in rounds of about 200 ms
+     * until two in a row agree.
+     */
+    private static String allocatedPerCall(InferenceSession session, double[] inputs, int rows, int outputs) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return "unknown";
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        double[] out = new double[rows * outputs];
+        long warmupEnd = System.nanoTime() + 1_000_000_000L;
+        int warmupCalls = 0;
+        while (System.nanoTime() < warmupEnd) {
+            session.predictBatch(inputs, rows, out);
+            warmupCalls++;
+        }
+        int calls = Math.max(10, warmupCalls / 5); // rounds of about 200 ms
+        long previous = -1;
+        for (int round = 0; round < 20; round++) {
+            long before = threads.getThreadAllocatedBytes(id);
+            for (int c = 0; c < calls; c++) {
+                session.predictBatch(inputs, rows, out);
+            }
+            long perCall = (threads.getThreadAllocatedBytes(id) - before) / calls;
+            if (perCall == previous) {
+                return String.valueOf(perCall);
+            }
+            previous = perCall;
+        }
+        return previous + " (not settled)";
+    }
+
+    // 1, 2, 4, ... and finally all cores
+    private static int[] defaultThreadCounts() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<>();
+        for (int t = 1; t < cores; t *= 2) {
+            counts.add(t);
+        }
+        counts.add(cores);
+        return counts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] parseIntList(String value) {
+        return Arrays.stream(value.split(",")).mapToInt(v -> Integer.parseInt(v.trim())).toArray();
+    }
+
+    // Usage: java main.java [hidden layer sizes...], e.g. "8 8" for a 2-8-8-1 net (default 2-2-1)
     public static void main(String[] args) {
-        NeuralNetworkSimulator nn = new NeuralNetworkSimulator();
+        if (args.length > 0 && args[0].startsWith("--")) {
+            try {
+                if (args[0].equals("--help")) {
+                    printUsage();
+                } else if (args[0].equals("--bench-train")) {
+                    runTrainBenchmark(args);
+                } else if (args[0].equals("--bench-infer")) {
+                    runInferenceBenchmark(args);
+                } else if (args[0].equals("--check-float")) {
+                    runFloatCheck(args);
+                } else if (args[0].equals("--train")) {
+                    runTraining(args);
+                } else if (args[0].equals("--model")) {
+                    inspectModel(args);
+                } else if (args[0].equals("--bench-converge")) {
+                    runConvergenceBenchmark(args);
+                } else if (args[0].equals("--quantize")) {
+                    runQuantizationReport(args);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[0]);
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                printUsage();
+                System.exit(1);
+            } catch (IOException | InterruptedException e) {
+                System.out.println("Failed: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        int[] sizes = new int[Math.max(1, args.length) + 2];
+        sizes[0] = INPUT_NEURONS;
+        sizes[sizes.length - 1] = OUTPUT_NEURONS;
+        if (args.length == 0) {
+            sizes[1] = HIDDEN_NEURONS;
+        }
+        for (int i = 0; i < args.length; i++) {
+            sizes[i + 1] = Integer.parseInt(args[i]);
+        }
+        NeuralNetworkSimulator nn = new NeuralNetworkSimulator(sizes);
         Scanner scanner = new Scanner(System.in);
 
-        // XOR training data: inputs and expected outputs
-        double[][] trainingInputs = {
-            {0, 0},
-            {0, 1},
-            {1, 0},
-            {1, 1}
+        // XOR training data: inputs and expected outputs, one row per sample
+        double[] trainingInputs = {
+            0, 0,
+            0, 1,
+            1, 0,
+            1, 1
         };
         double[] expectedOutputs = {0, 1, 1, 0};
 
-        System.out.println("Training Neural Network to learn XOR:");
-        // Train for some iterations
-        for (int epoch = 0; epoch < 10000; epoch++) {
-            for (int i = 0; i < trainingInputs.length; i++) {
-                nn.train(trainingInputs[i], expectedOutputs[i]);
-            }
-        }
+        System.out.println("Training Neural Network to learn XOR " + Arrays.toString(sizes) + ":");
+        // One sample per batch, as the XOR net has always been trained
+        double loss = nn.fit(trainingInputs, expectedOutputs, 4, 10000, 1);
 
-        System.out.println("Training completed.\n");
+        System.out.printf("Training completed (mean squared error %.6f).%n%n", loss);
 
         // Test phase
         while (true) {
@@ -160,8 +2767,7 @@ public class NeuralNetworkSimulator {
                     System.out.println("Inputs must be 0 or 1.");
                     continue;
                 }
-                double[] outputAndHidden = nn.feedForward(new double[] {input1, input2});
-                double outputVal = outputAndHidden[0];
+                double outputVal = nn.feedForward(new double[] {input1, input2})[0];
                 System.out.printf("Output (approx): %.4f (rounded: %d)%n", outputVal, outputVal >= 0.5 ? 1 : 0);
             } catch (NumberFormatException e) {
                 System.out.println("Invalid input. Enter numbers 0 or 1.");